@@ -153,3 +153,36 @@ userid bigint(20),
 status int(11) DEFAULT NULL,
 PRIMARY KEY (time, userid)
 );
+
+CREATE TABLE analytics_error_message_sample (
+  id bigint(20) NOT NULL AUTO_INCREMENT,
+  hashcode bigint(20) NOT NULL,
+  type varchar(20) NOT NULL,
+  slot int(11) NOT NULL,
+  message varchar(1000) DEFAULT NULL,
+  time bigint(20) NOT NULL,
+  PRIMARY KEY (id),
+  UNIQUE KEY key_unique (hashcode,type,slot)
+);
+
+CREATE TABLE analytics_unique_sketch (
+  metric varchar(32) NOT NULL,
+  time bigint(20) NOT NULL,
+  sketch mediumblob NOT NULL,
+  count bigint(20) DEFAULT NULL,
+  PRIMARY KEY (metric, time)
+);
+
+CREATE TABLE analytics_file_ledger (
+  filename varchar(64) NOT NULL,
+  analyzer varchar(64) NOT NULL,
+  time bigint(20) NOT NULL,
+  PRIMARY KEY (filename, analyzer)
+);
+
+CREATE TABLE analytics_tail_checkpoint (
+  filename varchar(64) NOT NULL,
+  byte_offset bigint(20) NOT NULL,
+  time bigint(20) NOT NULL,
+  PRIMARY KEY (filename)
+);
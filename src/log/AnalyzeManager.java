@@ -1,27 +1,40 @@
 package log;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import log.analyzers.*;
+import log.io.ArchiveIndex;
+import log.io.BlockSegment;
+import log.io.LogTimeScanner;
+import log.io.MappedLineReader;
+import log.parser.LogRecord;
+import log.parser.LogTokenizer;
+import log.parser.MethodDictionary;
 import log.util.Settings;
 import log.util.Tools;
 import org.apache.log4j.Logger;
@@ -39,16 +52,71 @@ public class AnalyzeManager implements AutoCloseable {
 
     private final Connection sqlConnection;
 
-    private final Pattern logPattern = Pattern.compile("^(\\d{17})\\s+([A-Z]{4,5})\\s+");
+    private final LogTokenizer tokenizer = new LogTokenizer();
+    private final LogRecord record = new LogRecord();
     private final String DATE_FORMAT = "yyyyMMddHH";
+    private String liveStreamHistory;
+    private int errorTemplatesMax;
+    private UniqueMode uniqueMode;
+    private int workers;
+    private int pipelineDepth;
+    private int revisitWorkers;
+    /**
+     * 0 if archived files are not compressed.
+     */
+    private int archiveBlockSize;
+    private boolean consolidateArchive;
+    private boolean tail;
+    private long revisitTargetMbPerSec;
+    private final Properties properties;
+    /**
+     * Null if chunking is off.
+     */
+    private ChunkedFileParser chunkedParser;
+    /**
+     * Null if analyzers are saved on the main connection.
+     */
+    private ParallelFlusher flusher;
 
     public AnalyzeManager(String configFilepath) throws Exception {
-        Properties properties = loadProperties(configFilepath);
+        properties = loadProperties(configFilepath);
         getDir(properties);
+        liveStreamHistory = properties.getProperty(Tools.LIVE_STREAM_HISTORY_KEY);
+        errorTemplatesMax = Integer.parseInt(properties.getProperty(Tools.ERROR_TEMPLATES_MAX_KEY, "0").trim());
+        uniqueMode = UniqueMode.parse(properties.getProperty(Tools.UNIQUE_MODE_KEY));
+        workers = Math.max(1, Integer.parseInt(properties.getProperty(Tools.WORKERS_KEY, "1").trim()));
+        pipelineDepth = Integer.parseInt(properties.getProperty(Tools.PIPELINE_DEPTH_KEY, "0").trim());
+        archiveBlockSize = Integer.parseInt(properties.getProperty(Tools.ARCHIVE_BLOCK_SIZE_KB_KEY, "0").trim()) * 1024;
+        consolidateArchive = Boolean.parseBoolean(properties.getProperty(Tools.ARCHIVE_CONSOLIDATE_KEY, "false").trim());
+        revisitWorkers = Integer.parseInt(properties.getProperty(Tools.REVISIT_WORKERS_KEY, "2").trim());
+        revisitTargetMbPerSec = Long.parseLong(properties.getProperty(Tools.REVISIT_TARGET_MBPS_KEY, "0").trim());
+        long chunkSizeMb = Long.parseLong(properties.getProperty(Tools.CHUNK_SIZE_MB_KEY,
+                String.valueOf(Tools.DEFAULT_CHUNK_SIZE_MB)).trim());
+        if (chunkSizeMb > 0L) {
+            chunkedParser = new ChunkedFileParser(new ForkJoinPool(), chunkSizeMb * 1024 * 1024);
+        }
 
         sqlConnection = createSqlConnection(properties);
         sqlConnection.setAutoCommit(false);
         sqlConnection.rollback();
+        MethodDictionary.getInstance().load(sqlConnection);
+
+        tail = Boolean.parseBoolean(properties.getProperty(Tools.TAIL_KEY, "false").trim());
+        int flushConnections = Integer.parseInt(properties.getProperty(Tools.FLUSH_CONNECTIONS_KEY, "1").trim());
+        if (tail && flushConnections > 1) {
+            logger.warn("Tailing saves an offset with the aggregates in one transaction; "
+                    + Tools.FLUSH_CONNECTIONS_KEY + " is ignored.");
+            flushConnections = 1;
+        }
+        if (flushConnections > 1) {
+            List<Connection> connections = new ArrayList<>();
+            for (int i = 0; i < flushConnections; ++i) {
+                Connection connection = createSqlConnection(properties);
+                connection.setAutoCommit(false);
+                connections.add(connection);
+            }
+            flusher = new ParallelFlusher(connections);
+        }
     }
 
     public void manageAnalyzer() throws Exception {
@@ -57,25 +125,401 @@ public class AnalyzeManager implements AutoCloseable {
     }
 
     private void processCurrent() throws Exception {
-        Collection<Analyzer> allAnalyzers = new ArrayList<Analyzer>() {
+        File currentDir = new File(this.currentPath);
+        if (null != flusher) {
+            flusher.repair(currentDir);
+        }
+        Collection<File> files = getLogFiles(currentDir);
+        if (tail) {
+            files = finishTailedFiles(currentDir, files);
+        }
+        if (workers > 1 && files.size() > 1) {
+            processCurrentParallel(files);
+        } else if (pipelineDepth > 0 && files.size() > 1) {
+            processCurrentPipelined(files);
+        } else {
+            AnalyzerDispatcher dispatcher = new AnalyzerDispatcher(createCurrentAnalyzers(sequentialUniqueMode()));
+            for (File file : files) {
+                processFile(dispatcher, file);
+            }
+        }
+
+        if (tail) {
+            File active = getActiveFile(currentDir);
+            if (null != active) {
+                sqlConnection.rollback();
+                Long offset = TailCheckpoint.load(sqlConnection).get(active.getName());
+                tailFile(new AnalyzerDispatcher(createCurrentAnalyzers(sequentialUniqueMode())), active,
+                        null == offset ? 0L : offset, false);
+            }
+        }
+        if (consolidateArchive) {
+            consolidateArchive(currentDir);
+        }
+    }
+
+    /**
+     * Reads the rest of the rolled files that were tailed while Flume wrote
+     * them, archives them and drops the checkpoints of files gone from the
+     * current folder.
+     *
+     * @return the files never tailed, to be processed as usual.
+     */
+    private Collection<File> finishTailedFiles(File currentDir, Collection<File> files) throws Exception {
+        sqlConnection.rollback();
+        Map<String, Long> offsets = TailCheckpoint.load(sqlConnection);
+        if (offsets.isEmpty()) {
+            return files;
+        }
+
+        AnalyzerDispatcher dispatcher = new AnalyzerDispatcher(createCurrentAnalyzers(sequentialUniqueMode()));
+        Collection<File> untailed = new ArrayList<>();
+        for (File file : files) {
+            Long offset = offsets.get(file.getName());
+            if (null == offset) {
+                untailed.add(file);
+            } else {
+                tailFile(dispatcher, file, offset, true);
+            }
+        }
+        for (String filename : offsets.keySet()) {
+            if (!new File(currentDir, filename).exists()) {
+                TailCheckpoint.delete(sqlConnection, filename);
+                logger.warn("Dropped the tail checkpoint of \"" + filename + "\", which is not in the current folder.");
+            }
+        }
+        sqlConnection.commit();
+        return untailed;
+    }
+
+    /**
+     * Processes the complete lines of the file from <code>offset</code> on
+     * and saves them with the new offset in one transaction; a rolled file
+     * is read to its end, archived and its checkpoint deleted instead.
+     */
+    private void tailFile(AnalyzerDispatcher dispatcher, File file, long offset, boolean rolled) {
+        try {
+            long end = rolled ? file.length() : MappedLineReader.completeLinesEnd(file, offset);
+            if (!rolled && end <= offset) {
+                return;
+            }
+
+            sqlConnection.rollback();
+            clear(dispatcher.getAnalyzers());
+            dispatcher.resetCounters();
+            fileStarted(dispatcher.getAnalyzers(), file);
+            long match = 0L, all = 0L;
+            try (MappedLineReader reader = new MappedLineReader(file, offset, end,
+                    MappedLineReader.DEFAULT_SEGMENT_SIZE)) {
+                CharSequence line;
+                while ((line = reader.readLine()) != null) {
+                    if (processLog(dispatcher, line)) {
+                        ++match;
+                    }
+                    ++all;
+                }
+            }
+
+            saveToDB(dispatcher.getAnalyzers());
+            File archived = null;
+            if (rolled) {
+                TailCheckpoint.delete(sqlConnection, file.getName());
+                archived = moveFile(file);
+            } else {
+                TailCheckpoint.save(sqlConnection, file.getName(), end);
+            }
+            sqlConnection.commit();
+            finishArchive(archived);
+
+            String report = "TAIL REPORT:"
+                    + " filename=" + file.getName()
+                    + " from=" + offset
+                    + " to=" + end
+                    + " rolled=" + rolled
+                    + " lines_read=" + all
+                    + " lines_matched=" + match
+                    + ".";
+            logger.info(report);
+            logger.info(dispatcher.getReport());
+        } catch (Exception ex) {
+            rollbackFile(dispatcher, file, ex);
+        }
+    }
+
+    /**
+     * Merges the archived files of the hours that have no file left in the
+     * current folder, in this month's and last month's folders. Skipped
+     * while a revisit reads the archive.
+     */
+    private void consolidateArchive(File currentDir) throws ParseException {
+        if (RevisitJob.isRunning()) {
+            logger.info("A revisit is running; the archive is consolidated next run.");
+            return;
+        }
+        ArchiveConsolidator consolidator = new ArchiveConsolidator(archiveBlockSize);
+        DateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
+        long endHour = Long.parseLong(sdf.format(new Date()));
+        File[] children = currentDir.listFiles();
+        if (null != children) {
+            for (File child : children) {
+                long hour = consolidator.getHour(child);
+                if (hour >= 0L) {
+                    endHour = Math.min(endHour, hour);
+                }
+            }
+        }
+
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(sdf.parse(Long.toString(endHour)));
+        for (int i = 0; i < 2; ++i) {
+            File folder = new File(this.archivePath + "/" + Tools.getArchiveFolderName(cal.getTimeInMillis()));
+            consolidator.consolidate(folder, endHour);
+            cal.add(Calendar.MONTH, -1);
+        }
+        logger.info(consolidator.getReport());
+    }
+
+    private Collection<Analyzer> createCurrentAnalyzers(final UniqueMode uniqueMode) throws SQLException {
+        return new ArrayList<Analyzer>() {
             {
-                add(new MethodCount(sqlConnection));
-                add(new ActivityCount(sqlConnection));
+                add(new MethodCount(lane(size())));
+                add(new ActivityCount(lane(size())));
                 //.add(new ListStat());
-                add(new MediaCount(sqlConnection));
-                add(new ErrorMessageCount(sqlConnection));
-                add(new LiveStreamHistory(sqlConnection));
-                add(new UserCount(sqlConnection));
-                add(new LiveViewerCount(sqlConnection));
-                add(new OnlineUserStatus(sqlConnection));
+                add(new MediaCount(lane(size())));
+                add(new ErrorMessageCount(lane(size()), errorTemplatesMax));
+                add(new LiveStreamHistory(lane(size()), liveStreamHistory));
+                add(new UserCount(lane(size()), uniqueMode));
+                add(new LiveViewerCount(lane(size()), uniqueMode));
+                add(new OnlineUserStatus(lane(size())));
             }
         };
+    }
 
-        File currentDir = new File(this.currentPath);
-        Collection<File> files = getLogFiles(currentDir);
+    /**
+     * @return the connection of the index-th analyzer of a set.
+     */
+    private Connection lane(int index) {
+        return null == flusher ? sqlConnection : flusher.getConnection(index);
+    }
 
-        for (File file : files) {
-            processFile(allAnalyzers, file);
+    /**
+     * Parses up to {@link #workers} files at a time, each into the analyzers
+     * of its own {@link FileWorker}, while this thread saves, archives and
+     * commits the parsed files strictly in file order on the one connection.
+     * A worker takes the next file once its previous file is committed, so
+     * at most {@link #workers} files are held in memory.<br>
+     * Parsing does not touch the database; the exact unique mode reads the
+     * day's ids while parsing and counts from them, which would race with
+     * the saves of earlier files, so it is replaced by INSERT_IGNORE here.
+     */
+    private void processCurrentParallel(Collection<File> files) throws Exception {
+        UniqueMode workerUniqueMode = concurrentUniqueMode(workers + " workers");
+
+        Deque<FileWorker> idle = new ArrayDeque<>();
+        for (int i = 0; i < workers; ++i) {
+            idle.add(new FileWorker(new AnalyzerDispatcher(createCurrentAnalyzers(workerUniqueMode))));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        Deque<FileWorker> parsing = new ArrayDeque<>();
+        try {
+            for (File file : files) {
+                if (idle.isEmpty()) {
+                    idle.add(commitParsed(parsing.poll()));
+                }
+                final FileWorker worker = idle.poll();
+                worker.file = file;
+                worker.parsed = executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        worker.parse();
+                        return null;
+                    }
+                });
+                parsing.add(worker);
+            }
+            while (!parsing.isEmpty()) {
+                commitParsed(parsing.poll());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits for the worker's file to be parsed, then saves it the way
+     * {@link #processFile(AnalyzerDispatcher, File)} does.
+     *
+     * @return the worker, free for the next file.
+     */
+    private FileWorker commitParsed(FileWorker worker) throws InterruptedException {
+        try {
+            worker.parsed.get();
+            commitFile(worker.dispatcher, worker.file, worker.match, worker.all);
+        } catch (InterruptedException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            rollbackFile(worker.dispatcher, worker.file, ex instanceof ExecutionException ? ex.getCause() : ex);
+        }
+        return worker;
+    }
+
+    /**
+     * Saves a parsed file, archives it and commits.
+     */
+    private void commitFile(AnalyzerDispatcher dispatcher, File file, long match, long all) throws Exception {
+        sqlConnection.rollback();
+        saveFile(dispatcher.getAnalyzers(), file);
+
+        String report = "FILE REPORT:"
+                + " filename=" + file.getName()
+                + " lines_read=" + all
+                + " lines_matched=" + match
+                + ".";
+        logger.info(report);
+        logger.info(dispatcher.getReport());
+    }
+
+    /**
+     * Saves the analyzers of a file and archives it: in one transaction of
+     * the main connection, or lane by lane through the {@link #flusher}.
+     */
+    private void saveFile(Collection<Analyzer> analyzers, File file) throws Exception {
+        if (null == flusher) {
+            saveToDB(analyzers);
+            File archived = moveFile(file);
+            sqlConnection.commit();
+            finishArchive(archived);
+            return;
+        }
+        flusher.flush(file.getName(), analyzers);
+        fileSaved(analyzers);
+        File archived = moveFile(file);
+        flusher.complete(file.getName());
+        finishArchive(archived);
+    }
+
+    private void rollbackFile(AnalyzerDispatcher dispatcher, File file, Throwable cause) {
+        fileRolledBack(dispatcher.getAnalyzers());
+        try {
+            sqlConnection.rollback();
+        } catch (SQLException sqlr) {
+            //TODO: what to do when even rollback fails?
+            logger.fatal("Database rollback failed.", sqlr);
+        }
+        String msg = String.format("Exception while processing file \"%s\".", file.getAbsolutePath());
+        logger.error(msg, cause);
+    }
+
+    /**
+     * Reads ahead, parses and saves on three threads, see
+     * {@link FilePipeline}. As with workers, parsing must not read from the
+     * database, so the exact unique mode is replaced by INSERT_IGNORE.
+     */
+    private void processCurrentPipelined(Collection<File> files) throws Exception {
+        UniqueMode pipelineUniqueMode = concurrentUniqueMode("the pipeline");
+        List<AnalyzerDispatcher> sets = new ArrayList<>();
+        for (int i = 0; i <= pipelineDepth; ++i) {
+            sets.add(new AnalyzerDispatcher(createCurrentAnalyzers(pipelineUniqueMode)));
+        }
+
+        new FilePipeline(pipelineDepth, new FilePipeline.Handler() {
+            private final LogTokenizer tokenizer = new LogTokenizer();
+            private final LogRecord record = new LogRecord();
+
+            @Override
+            public long[] parse(AnalyzerDispatcher dispatcher, MappedLineReader reader, File file) throws Exception {
+                clear(dispatcher.getAnalyzers());
+                dispatcher.resetCounters();
+                fileStarted(dispatcher.getAnalyzers(), file);
+                if (null != chunkedParser && file.length() > 2 * chunkedParser.getChunkSize()) {
+                    return chunkedParser.parse(dispatcher, file);
+                }
+
+                long match = 0L, all = 0L;
+                CharSequence line;
+                while ((line = reader.readLine()) != null) {
+                    if (tokenizer.tokenize(line, record) && dispatcher.dispatch(record)) {
+                        ++match;
+                    }
+                    ++all;
+                }
+                return new long[]{match, all};
+            }
+
+            @Override
+            public void save(AnalyzerDispatcher dispatcher, File file, long match, long all) throws Exception {
+                commitFile(dispatcher, file, match, all);
+            }
+
+            @Override
+            public void failed(AnalyzerDispatcher dispatcher, File file, Exception ex) {
+                rollbackFile(dispatcher, file, ex);
+            }
+        }).run(files, sets);
+    }
+
+    /**
+     * @return the unique mode for analyzers that parse and save on this
+     * thread. A running revisit adds to the day counts from its own
+     * connection, and the exact mode would overwrite them with the counts it
+     * cached.
+     */
+    private UniqueMode sequentialUniqueMode() {
+        return RevisitJob.isRunning() ? concurrentUniqueMode("a running revisit") : uniqueMode;
+    }
+
+    /**
+     * @return the unique mode for analyzers that parse while another thread
+     * saves.
+     */
+    private UniqueMode concurrentUniqueMode(String user) {
+        if (UniqueMode.EXACT == uniqueMode) {
+            logger.warn("Unique mode " + UniqueMode.EXACT + " reads while parsing; "
+                    + UniqueMode.INSERT_IGNORE + " is used with " + user + ".");
+            return UniqueMode.INSERT_IGNORE;
+        }
+        return uniqueMode;
+    }
+
+    /**
+     * The tokenizer, record and analyzers one parsing thread works with.
+     */
+    private class FileWorker {
+
+        private final LogTokenizer tokenizer = new LogTokenizer();
+        private final LogRecord record = new LogRecord();
+        private final AnalyzerDispatcher dispatcher;
+        private File file;
+        private Future<Void> parsed;
+        private long match, all;
+
+        FileWorker(AnalyzerDispatcher dispatcher) {
+            this.dispatcher = dispatcher;
+        }
+
+        void parse() throws IOException {
+            clear(dispatcher.getAnalyzers());
+            dispatcher.resetCounters();
+            fileStarted(dispatcher.getAnalyzers(), file);
+            match = 0L;
+            all = 0L;
+            if (null != chunkedParser && file.length() > 2 * chunkedParser.getChunkSize()) {
+                long[] counts = chunkedParser.parse(dispatcher, file);
+                match = counts[0];
+                all = counts[1];
+                return;
+            }
+
+            try (MappedLineReader reader = new MappedLineReader(file)) {
+                CharSequence line;
+                while ((line = reader.readLine()) != null) {
+                    if (tokenizer.tokenize(line, record) && dispatcher.dispatch(record)) {
+                        ++match;
+                    }
+                    ++all;
+                }
+            }
         }
     }
 
@@ -137,7 +581,12 @@ public class AnalyzeManager implements AutoCloseable {
         }
     }
 
-    private Collection<File> getLogFiles(File dir) {
+    /**
+     * @return the newest &lt;time&gt;-&lt;count&gt; file, which Flume may
+     * still be writing; null if there is none.
+     */
+    private File getActiveFile(File dir) {
+        File active = null;
         long maxTime = -1L, maxCount = -1L;
         for (File file : dir.listFiles()) {
             try {
@@ -157,11 +606,23 @@ public class AnalyzeManager implements AutoCloseable {
                 if (time > maxTime || (time == maxTime && count > maxCount)) {
                     maxTime = time;
                     maxCount = count;
+                    active = file;
                 }
             } catch (Exception ex) {
                 logger.error("", ex);
             }
         }
+        return active;
+    }
+
+    private Collection<File> getLogFiles(File dir) {
+        long maxTime = -1L, maxCount = -1L;
+        File active = getActiveFile(dir);
+        if (null != active) {
+            String[] arr = active.getName().split("-");
+            maxTime = Long.parseLong(arr[0]);
+            maxCount = Long.parseLong(arr[1]);
+        }
 
         ArrayList<File> files = new ArrayList<File>();
         for (File file : dir.listFiles()) {
@@ -186,6 +647,15 @@ public class AnalyzeManager implements AutoCloseable {
                 logger.error("", ex);
             }
         }
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                String[] arr1 = f1.getName().split("-");
+                String[] arr2 = f2.getName().split("-");
+                int cmp = Long.compare(Long.parseLong(arr1[0]), Long.parseLong(arr2[0]));
+                return 0 != cmp ? cmp : Long.compare(Long.parseLong(arr1[1]), Long.parseLong(arr2[1]));
+            }
+        });
         return files;
     }
 
@@ -193,27 +663,34 @@ public class AnalyzeManager implements AutoCloseable {
         return file.isFile() && file.canRead();
     }
 
-    private void processFile(Collection<Analyzer> allAnalyzers, File file) {
+    private void processFile(AnalyzerDispatcher dispatcher, File file) {
 
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(
-                new FileInputStream(file), StandardCharsets.UTF_8))) {
+        try {
 
             sqlConnection.rollback();
-            clear(allAnalyzers);
-            String line;
+            clear(dispatcher.getAnalyzers());
+            dispatcher.resetCounters();
+            fileStarted(dispatcher.getAnalyzers(), file);
             long match = 0L, all = 0L;
 
-            while ((line = br.readLine()) != null) {
-                boolean success = processLog(allAnalyzers, line);
-                if (success) {
-                    ++match;
+            if (null != chunkedParser && file.length() > 2 * chunkedParser.getChunkSize()) {
+                long[] counts = chunkedParser.parse(dispatcher, file);
+                match = counts[0];
+                all = counts[1];
+            } else {
+                try (MappedLineReader reader = new MappedLineReader(file)) {
+                    CharSequence line;
+                    while ((line = reader.readLine()) != null) {
+                        boolean success = processLog(dispatcher, line);
+                        if (success) {
+                            ++match;
+                        }
+                        ++all;
+                    }
                 }
-                ++all;
             }
 
-            saveToDB(allAnalyzers);
-            moveFile(file);
-            sqlConnection.commit();
+            saveFile(dispatcher.getAnalyzers(), file);
 
             String report = "FILE REPORT:"
                     + " filename=" + file.getName()
@@ -221,46 +698,114 @@ public class AnalyzeManager implements AutoCloseable {
                     + " lines_matched=" + match
                     + ".";
             logger.info(report);
+            logger.info(dispatcher.getReport());
         } catch (Exception ex) {
-            try {
-                sqlConnection.rollback();
-            } catch (SQLException sqlr) {
-                //TODO: what to do when even rollback fails?
-                logger.fatal("Database rollback failed.", sqlr);
-            }
-            String msg = String.format("Exception while processing file \"%s\".", file.getAbsolutePath());
-            logger.error(msg, ex);
+            rollbackFile(dispatcher, file, ex);
         }
     }
 
-    private boolean processLog(Collection<Analyzer> allAnalyzers, String log) {
-        boolean anySuccess = false;
-
-        Matcher matcher = logPattern.matcher(log);
-        if (matcher.find()) {
-            String time = matcher.group(1);
-            String type = matcher.group(2);
-
-            for (Analyzer analyzer : allAnalyzers) {
-                boolean success = analyzer.processLog(log);
-                anySuccess = anySuccess || success;
-            }
+    private boolean processLog(AnalyzerDispatcher dispatcher, CharSequence log) {
+        if (tokenizer.tokenize(log, record)) {
+            return dispatcher.dispatch(record);
         }
-        return anySuccess;
+        return false;
     }
 
-    private void moveFile(File file) throws Exception {
+    /**
+     * @return the archived file, to be finished by
+     * {@link #finishArchive(File)} once the transaction is committed; null
+     * if the file was empty.
+     */
+    private File moveFile(File file) throws Exception {
         if (file.length() < 1L) {
             file.delete();
+            return null;
         }
 
         String newFolderName = Tools.getArchiveFolderName(file.lastModified());
         File newFolder = new File(this.archivePath + "/" + newFolderName);
         newFolder.mkdir();
-        file.renameTo(new File(newFolder.getAbsolutePath() + "/" + file.getName()));
+        File archived = new File(newFolder.getAbsolutePath() + "/" + file.getName());
+        return file.renameTo(archived) ? archived : null;
+    }
+
+    /**
+     * Compresses the archived file, or writes its sidecar index. Both read
+     * the whole file, so they run after the commit, and a revisit does not
+     * see the file, as it lists the archive before the current folder is
+     * processed.
+     */
+    private void finishArchive(File archived) {
+        if (null == archived) {
+            return;
+        }
+        if (archiveBlockSize > 0 && compressFile(archived)) {
+            return;
+        }
+        writeIndex(archived);
     }
 
+    /**
+     * Replaces the archived file by a {@link BlockSegment}, whose block
+     * index takes the place of the sidecar index.
+     *
+     * @return false if the file stays as it is.
+     */
+    private boolean compressFile(File file) {
+        File target = new File(file.getParentFile(), file.getName() + BlockSegment.SUFFIX);
+        try {
+            long start = System.currentTimeMillis();
+            BlockSegment segment = BlockSegment.write(file, target, archiveBlockSize);
+            long elapsed = System.currentTimeMillis() - start;
+            if (!file.delete()) {
+                // both in the archive would be revisited twice
+                target.delete();
+                logger.error(String.format("\"%s\" is compressed, but could not be deleted.", file.getAbsolutePath()));
+                return false;
+            }
+
+            long raw = segment.getRawSize();
+            long compressed = segment.getCompressedSize();
+            String report = "SEGMENT REPORT:"
+                    + " filename=" + file.getName()
+                    + " blocks=" + segment.getBlocks().size()
+                    + " raw_bytes=" + raw
+                    + " compressed_bytes=" + compressed
+                    + " ratio=" + String.format("%.2f", compressed > 0L ? (double) raw / compressed : 0.0)
+                    + " ms=" + elapsed
+                    + ".";
+            logger.info(report);
+            return true;
+        } catch (Exception ex) {
+            target.delete();
+            String msg = String.format("Exception while compressing file \"%s\".", file.getAbsolutePath());
+            logger.error(msg, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Writes the sidecar index the revisit uses to skip and seek in the
+     * archived file; without it the file is read from the start.
+     */
+    private void writeIndex(File archived) {
+        try {
+            ArchiveIndex.write(archived);
+        } catch (Exception ex) {
+            String msg = String.format("Exception while indexing file \"%s\".", archived.getAbsolutePath());
+            logger.error(msg, ex);
+        }
+    }
+
+    /**
+     * Deletes the revisited range and starts a {@link RevisitJob} over the
+     * archive files listed now; the current folder is processed meanwhile.
+     */
     private void processRevisitFeatures() throws Exception {
+        if (RevisitJob.isRunning()) {
+            logger.info("A revisit is still running; the revisit settings are checked again next run.");
+            return;
+        }
         sqlConnection.rollback();
         Settings settings = new Settings(sqlConnection);
         Map<String, String> settingMap = settings.getSettingMap();
@@ -278,17 +823,30 @@ public class AnalyzeManager implements AutoCloseable {
             long endTime = getCurrentDayEndTime();
 
             Collection<String> features = getFeatures(revisitFeatureStr);
+            Connection revisitConnection = createSqlConnection(properties);
             try {
-                processArchiveReadFeatures(features, startTime, endTime, lookbackTime);
-                processDatabaseReadFeatures(features, startTime, endTime);
-                settings.delFeatureSetting(sqlConnection);
-                sqlConnection.commit();
+                revisitConnection.setAutoCommit(false);
+                List<Analyzer> archiveAnalyzers = createArchiveAnalyzers(revisitConnection, features);
+                List<Analyzer> databaseAnalyzers = createDatabaseAnalyzers(revisitConnection, features);
+                for (Analyzer analyzer : archiveAnalyzers) {
+                    analyzer.deleteFromDB(startTime, endTime);
+                }
+                revisitConnection.commit();
+
+                List<File> files = RevisitJob.listFiles(getArchiveSubDirectories(lookbackTime));
+                new RevisitJob(revisitConnection, settings, archiveAnalyzers, databaseAnalyzers, files,
+                        startTime, endTime, lookbackTime, revisitWorkers, revisitTargetMbPerSec).start();
             } catch (Exception ex) {
                 try {
-                    sqlConnection.rollback();
+                    revisitConnection.rollback();
                 } catch (SQLException sqlr) {
-                    //TODO: what to do when even rollback fails?
                     logger.fatal("Database rollback failed.", sqlr);
+                } finally {
+                    try {
+                        revisitConnection.close();
+                    } catch (SQLException sqlc) {
+                        logger.error("", sqlc);
+                    }
                 }
                 throw ex;
             }
@@ -320,118 +878,28 @@ public class AnalyzeManager implements AutoCloseable {
         return list;
     }
 
-    private void processArchiveReadFeatures(Collection<String> allFeatures,
-            long startTime, long endTime, long lookbackTime) throws Exception {
-        Collection<Analyzer> archiveAnalyzers = new ArrayList<Analyzer>();
+    private List<Analyzer> createArchiveAnalyzers(Connection connection, Collection<String> allFeatures)
+            throws SQLException {
+        UniqueMode revisitUniqueMode = concurrentUniqueMode("the revisit");
+        List<Analyzer> archiveAnalyzers = new ArrayList<Analyzer>();
         for (String feature : allFeatures) {
             if (feature.equalsIgnoreCase(Tools.FeatureType.MEDIA_COUNT)) {
-                archiveAnalyzers.add(new MediaCount(sqlConnection));
+                archiveAnalyzers.add(new MediaCount(connection));
             } else if (feature.equalsIgnoreCase(Tools.FeatureType.LIVE_STREAM_HISTORY)) {
-                archiveAnalyzers.add(new LiveStreamHistory(sqlConnection));
+                archiveAnalyzers.add(new LiveStreamHistory(connection, liveStreamHistory));
             } else if (feature.equalsIgnoreCase(Tools.FeatureType.METHOD_COUNT)) {
-                archiveAnalyzers.add(new MethodCount(sqlConnection));
+                archiveAnalyzers.add(new MethodCount(connection));
             } else if (feature.equalsIgnoreCase(Tools.FeatureType.ONLINE_USER_STATUS)) {
-                archiveAnalyzers.add(new OnlineUserStatus(sqlConnection));
+                archiveAnalyzers.add(new OnlineUserStatus(connection));
             } else if (feature.equalsIgnoreCase(Tools.FeatureType.ERROR_MESSAGE_COUNT)) {
-                archiveAnalyzers.add(new ErrorMessageCount(sqlConnection));
+                archiveAnalyzers.add(new ErrorMessageCount(connection, errorTemplatesMax));
             } else if (feature.equalsIgnoreCase(Tools.FeatureType.LIVE_VIEWER_COUNT)) {
-                archiveAnalyzers.add(new LiveViewerCount(sqlConnection));
+                archiveAnalyzers.add(new LiveViewerCount(connection, revisitUniqueMode));
             } else if (feature.equalsIgnoreCase(Tools.FeatureType.USER_COUNT)) {
-                archiveAnalyzers.add(new UserCount(sqlConnection));
-            }
-        }
-
-        for (Analyzer analyzer : archiveAnalyzers) {
-            analyzer.deleteFromDB(startTime, endTime);
-        }
-
-        processArchiveDir(archiveAnalyzers, startTime, endTime, lookbackTime);
-    }
-
-    private void processArchiveDir(Collection<Analyzer> analyzers,
-            long startTime, long endTime, long lookbackTime) throws ParseException {
-        String startTimeStr = Long.toString(startTime);
-        List<File> archiveSubDir = getArchiveSubDirectories(lookbackTime);
-        for (File logDir : archiveSubDir) {
-            for (File file : logDir.listFiles()) {
-                if (isProcessableArchiveFile(file, lookbackTime)) {
-                    processArchiveFile(analyzers, file, startTimeStr);
-                }
-            }
-        }
-    }
-
-    private void processArchiveFile(Collection<Analyzer> analyzers, File file, String startTime) {
-
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(
-                new FileInputStream(file), StandardCharsets.UTF_8))) {
-
-            String line;
-            long match = 0L, all = 0L;
-
-            clear(analyzers);
-            while ((line = br.readLine()) != null) {
-                boolean success = processArchiveLog(analyzers, line, startTime);
-                if (success) {
-                    ++match;
-                }
-                ++all;
+                archiveAnalyzers.add(new UserCount(connection, revisitUniqueMode));
             }
-            saveToDB(analyzers);
-
-            String report = "FILE REPORT:"
-                    + " filename=" + file.getName()
-                    + " lines_read=" + all
-                    + " lines_matched=" + match
-                    + ".";
-            logger.info(report);
-        } catch (Exception ex) {
-            String msg = String.format("Exception while processing file \"%s\".", file.getAbsolutePath());
-            logger.error(msg, ex);
         }
-    }
-
-    private boolean processArchiveLog(Collection<Analyzer> analyzers, String log, String startTime) {
-        boolean anySuccess = false;
-
-        Matcher matcher = logPattern.matcher(log);
-        if (matcher.find()) {
-            String time = matcher.group(1);
-            String type = matcher.group(2);
-
-            if (startTime.compareTo(time) <= 0) {
-                for (Analyzer analyzer : analyzers) {
-                    boolean success = analyzer.processLog(log);
-                    anySuccess = anySuccess || success;
-                }
-            }
-        }
-        return anySuccess;
-    }
-
-    private boolean isProcessableArchiveFile(File file, long lookbackTime) {
-
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(
-                new FileInputStream(file), StandardCharsets.UTF_8))) {
-
-            String line;
-            long timeInSeconds = Long.MIN_VALUE;
-
-            while ((line = br.readLine()) != null) {
-                Matcher matcher = logPattern.matcher(line);
-                if (matcher.find()) {
-                    timeInSeconds = Long.parseLong(matcher.group(1).substring(0, 10));
-                    break;
-                }
-            }
-
-            if (timeInSeconds >= lookbackTime) {
-                return true;
-            }
-        } catch (Exception ex) {
-            logger.error("Exception while reading file", ex);
-        }
-        return false;
+        return archiveAnalyzers;
     }
 
     private List<File> getArchiveSubDirectories(long startTime) throws ParseException {
@@ -473,22 +941,15 @@ public class AnalyzeManager implements AutoCloseable {
         return Long.parseLong(sdf.format(cal.getTime()));
     }
 
-    private void processDatabaseReadFeatures(Collection<String> allFeatures,
-            long startTime, long endTime) throws SQLException {
-        Collection<Analyzer> databaseAnalyzers = new ArrayList<Analyzer>();
+    private List<Analyzer> createDatabaseAnalyzers(Connection connection, Collection<String> allFeatures)
+            throws SQLException {
+        List<Analyzer> databaseAnalyzers = new ArrayList<Analyzer>();
         for (String feature : allFeatures) {
             if (feature.equalsIgnoreCase(Tools.FeatureType.ACTIVITY_COUNT)) {
-                databaseAnalyzers.add(new ActivityCount(sqlConnection));
+                databaseAnalyzers.add(new ActivityCount(connection));
             }
         }
-
-        for (Analyzer analyzer : databaseAnalyzers) {
-            analyzer.deleteFromDB(startTime, endTime);
-        }
-
-        for (Analyzer analyzer : databaseAnalyzers) {
-            analyzer.recalculate(startTime, endTime);
-        }
+        return databaseAnalyzers;
     }
 
     private Properties loadProperties(String filepath) throws Exception {
@@ -543,10 +1004,47 @@ public class AnalyzeManager implements AutoCloseable {
         for (Analyzer analyzer : analyzers) {
             analyzer.saveToDB();
         }
+        fileSaved(analyzers);
+    }
+
+    private void fileSaved(Collection<Analyzer> analyzers) {
+        for (Analyzer analyzer : analyzers) {
+            if (analyzer instanceof FileListener) {
+                ((FileListener) analyzer).fileSaved();
+            }
+        }
+    }
+
+    private void fileStarted(Collection<Analyzer> analyzers, File file) {
+        List<Long> days = Collections.emptyList();
+        try {
+            days = LogTimeScanner.scanDays(file);
+        } catch (IOException ex) {
+            logger.error("", ex);
+        }
+        for (Analyzer analyzer : analyzers) {
+            if (analyzer instanceof FileListener) {
+                ((FileListener) analyzer).fileStarted(days);
+            }
+        }
+    }
+
+    private void fileRolledBack(Collection<Analyzer> analyzers) {
+        for (Analyzer analyzer : analyzers) {
+            if (analyzer instanceof FileListener) {
+                ((FileListener) analyzer).fileRolledBack();
+            }
+        }
     }
 
     @Override
     public void close() throws Exception {
+        if (null != chunkedParser) {
+            chunkedParser.shutdown();
+        }
+        if (null != flusher) {
+            flusher.close();
+        }
         sqlConnection.close();
     }
 }
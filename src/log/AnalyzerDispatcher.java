@@ -0,0 +1,227 @@
+package log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import log.analyzers.Analyzer;
+import log.analyzers.Subscription;
+import log.parser.LogRecord;
+import log.parser.MethodDictionary;
+
+/**
+ * Routes each tokenized line only to the analyzers subscribed to its level
+ * and method.<br>
+ * The routing table is built once from {@link Analyzer#getSubscription()}:
+ * one route per (level, method) named by any subscription, one route per
+ * level for the remaining methods and one for non-request lines. Every route
+ * counts the lines it received, so the report shows how many analyzer calls
+ * were skipped.
+ *
+ * @author sazzad
+ */
+public class AnalyzerDispatcher {
+
+    private final Collection<Analyzer> analyzers;
+    private final Map<String, LevelRoutes> levelRoutes = new HashMap<>();
+    private final List<Route> allRoutes = new ArrayList<>();
+
+    private long unroutedHits;
+
+    public AnalyzerDispatcher(Collection<Analyzer> analyzers) {
+        this.analyzers = Collections.unmodifiableCollection(new ArrayList<>(analyzers));
+        buildRoutes();
+    }
+
+    public Collection<Analyzer> getAnalyzers() {
+        return analyzers;
+    }
+
+    /**
+     * @param record
+     * @return true if any analyzer counted the line.
+     */
+    public boolean dispatch(LogRecord record) {
+        LevelRoutes routes = levelRoutes.get(record.getLevel());
+        if (null == routes) {
+            ++unroutedHits;
+            return false;
+        }
+
+        Route route;
+        if (record.isRequest()) {
+            int methodId = record.getMethodId();
+            route = methodId < routes.methods.length ? routes.methods[methodId] : null;
+            if (null == route) {
+                route = routes.otherMethods;
+            }
+        } else {
+            route = routes.nonRequests;
+        }
+
+        ++route.hits;
+        boolean anySuccess = false;
+        for (Analyzer analyzer : route.analyzers) {
+            boolean success = analyzer.processRecord(record);
+            anySuccess = anySuccess || success;
+        }
+        return anySuccess;
+    }
+
+    public void resetCounters() {
+        unroutedHits = 0L;
+        for (Route route : allRoutes) {
+            route.hits = 0L;
+        }
+    }
+
+    /**
+     * Adds the route counters of a dispatcher over partials of the same
+     * analyzers, see {@link Analyzer#newPartial()}.
+     */
+    public void mergeCounters(AnalyzerDispatcher other) {
+        unroutedHits += other.unroutedHits;
+        for (int i = 0; i < allRoutes.size(); ++i) {
+            allRoutes.get(i).hits += other.allRoutes.get(i).hits;
+        }
+    }
+
+    /**
+     * @return a one line summary of the route counters since the last reset.
+     */
+    public String getReport() {
+        long lines = unroutedHits, calls = 0L;
+        StringBuilder sb = new StringBuilder();
+        for (Route route : allRoutes) {
+            lines += route.hits;
+            calls += route.hits * route.analyzers.length;
+            if (route.hits > 0L) {
+                sb.append(sb.length() == 0 ? "" : ",").append(route.name).append('=').append(route.hits);
+            }
+        }
+        long offered = lines * analyzers.size();
+        return "ROUTE REPORT:"
+                + " lines=" + lines
+                + " analyzer_calls=" + calls
+                + " calls_skipped=" + (offered - calls)
+                + " unrouted=" + unroutedHits
+                + " routes=[" + sb + "]"
+                + ".";
+    }
+
+    private void buildRoutes() {
+        Map<String, List<Analyzer>> allLines = new LinkedHashMap<>();
+        Map<String, List<Analyzer>> anyMethod = new LinkedHashMap<>();
+        Map<String, List<Analyzer>> nonRequests = new LinkedHashMap<>();
+        Map<String, Map<String, List<Analyzer>>> byMethod = new LinkedHashMap<>();
+
+        for (Analyzer analyzer : analyzers) {
+            Subscription subscription = analyzer.getSubscription();
+            for (String level : subscription.getLevels()) {
+                switch (subscription.getScope()) {
+                case ALL_LINES:
+                    listOf(allLines, level).add(analyzer);
+                    break;
+                case NON_REQUESTS:
+                    listOf(nonRequests, level).add(analyzer);
+                    break;
+                case REQUESTS:
+                    if (subscription.isAllMethods()) {
+                        listOf(anyMethod, level).add(analyzer);
+                    } else {
+                        Map<String, List<Analyzer>> methods = byMethod.get(level);
+                        if (null == methods) {
+                            methods = new LinkedHashMap<>();
+                            byMethod.put(level, methods);
+                        }
+                        for (String method : subscription.getMethods()) {
+                            listOf(methods, method).add(analyzer);
+                        }
+                    }
+                    break;
+                }
+            }
+        }
+
+        Set<String> levels = new LinkedHashSet<>();
+        levels.addAll(allLines.keySet());
+        levels.addAll(anyMethod.keySet());
+        levels.addAll(nonRequests.keySet());
+        levels.addAll(byMethod.keySet());
+
+        for (String level : levels) {
+            LevelRoutes routes = new LevelRoutes();
+            Map<String, List<Analyzer>> methods = byMethod.get(level);
+            if (null != methods) {
+                MethodDictionary dictionary = MethodDictionary.getInstance();
+                for (String method : methods.keySet()) {
+                    dictionary.idOf(method);
+                }
+                routes.methods = new Route[dictionary.size()];
+                for (Map.Entry<String, List<Analyzer>> entry : methods.entrySet()) {
+                    Route route = newRoute(level + "/" + entry.getKey(),
+                            allLines.get(level), anyMethod.get(level), entry.getValue());
+                    routes.methods[dictionary.find(entry.getKey())] = route;
+                }
+            }
+            routes.otherMethods = newRoute(level + "/*", allLines.get(level), anyMethod.get(level));
+            routes.nonRequests = newRoute(level + "/-", allLines.get(level), nonRequests.get(level));
+            levelRoutes.put(level, routes);
+        }
+    }
+
+    /**
+     * Keeps the analyzers in the order they were given to the dispatcher.
+     */
+    @SafeVarargs
+    private final Route newRoute(String name, List<Analyzer>... subscribers) {
+        List<Analyzer> list = new ArrayList<>();
+        for (Analyzer analyzer : analyzers) {
+            for (List<Analyzer> group : subscribers) {
+                if (null != group && group.contains(analyzer) && !list.contains(analyzer)) {
+                    list.add(analyzer);
+                }
+            }
+        }
+        Route route = new Route(name, list.toArray(new Analyzer[list.size()]));
+        allRoutes.add(route);
+        return route;
+    }
+
+    private static List<Analyzer> listOf(Map<String, List<Analyzer>> map, String key) {
+        List<Analyzer> list = map.get(key);
+        if (null == list) {
+            list = new ArrayList<>();
+            map.put(key, list);
+        }
+        return list;
+    }
+
+    private static class LevelRoutes {
+
+        /**
+         * Routes by method id; methods without a route of their own, or
+         * added to the dictionary later, take otherMethods.
+         */
+        private Route[] methods = new Route[0];
+        private Route otherMethods;
+        private Route nonRequests;
+    }
+
+    private static class Route {
+
+        private final String name;
+        private final Analyzer[] analyzers;
+        private long hits;
+
+        Route(String name, Analyzer[] analyzers) {
+            this.name = name;
+            this.analyzers = analyzers;
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package log;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import log.io.ArchiveIndex;
+import log.io.BlockSegment;
+import log.io.ByteLine;
+import log.io.MappedLineReader;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PropertyConfigurator;
+
+/**
+ * Merges the small Flume files of an archive month folder into one file per
+ * hour, <code>hour-yyyyMMddHH</code> (a {@link BlockSegment} if archived
+ * files are compressed), so listing and revisiting a month touches a few
+ * hundred files.<br>
+ * The hour of a file is the one of the epoch in its
+ * <code>&lt;epoch&gt;-&lt;count&gt;</code> name. Records, i.e. a line with
+ * a timestamp and the lines without one after it, are merged in timestamp
+ * order, keeping the file order for equal timestamps. The source names are
+ * listed in <code>hour-yyyyMMddHH.manifest</code>, written before the merged
+ * file appears and the sources are deleted; a manifest without its merged
+ * file is left from a crash and the hour is merged again, and the sources
+ * a manifest lists next to its merged file are deleted. A file of an hour
+ * that is already merged stays as it is.
+ *
+ * @author sazzad
+ */
+public class ArchiveConsolidator {
+
+    private static final Logger logger = Logger.getLogger(ArchiveConsolidator.class);
+
+    public static final String PREFIX = "hour-";
+    public static final String MANIFEST_SUFFIX = ".manifest";
+
+    private final int blockSize;
+    private final SimpleDateFormat hourFormat = new SimpleDateFormat("yyyyMMddHH");
+    private long hours, sources, bytes, millis;
+
+    /**
+     * @param blockSize the block size of the merged segments, 0 for plain
+     * files with a sidecar index
+     */
+    public ArchiveConsolidator(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    public static boolean isManifestFile(File file) {
+        return file.getName().endsWith(MANIFEST_SUFFIX);
+    }
+
+    /**
+     * @return the names listed by the manifests of the folder whose merged
+     * file exists; such sources are left only by a crash before they were
+     * deleted, and their lines are already in the merged file.
+     */
+    static Set<String> findMergedSources(File[] children) throws IOException {
+        Set<String> names = new HashSet<>();
+        for (File child : children) {
+            if (!isManifestFile(child)) {
+                continue;
+            }
+            String name = child.getName().substring(0, child.getName().length() - MANIFEST_SUFFIX.length());
+            File folder = child.getParentFile();
+            if (new File(folder, name).isFile() || new File(folder, name + BlockSegment.SUFFIX).isFile()) {
+                names.addAll(readManifest(child));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return the hour (yyyyMMddHH) of a Flume file, -1 if the name is not
+     * &lt;epoch&gt;-&lt;count&gt;, optionally followed by the segment suffix.
+     */
+    public long getHour(File file) {
+        String name = file.getName();
+        if (BlockSegment.isSegmentFile(file)) {
+            name = name.substring(0, name.length() - BlockSegment.SUFFIX.length());
+        }
+        if (!name.matches("\\d+-\\d+")) {
+            return -1L;
+        }
+        return Long.parseLong(hourFormat.format(new Date(Long.parseLong(name.split("-")[0]))));
+    }
+
+    /**
+     * Merges the hours of the folder before <code>endHour</code> that have
+     * more than one file.
+     */
+    public void consolidate(File folder, long endHour) {
+        File[] children = folder.listFiles();
+        if (null == children) {
+            return;
+        }
+        Map<Long, List<File>> hourFiles = new TreeMap<>();
+        for (File child : children) {
+            long hour = getHour(child);
+            if (hour < 0L || hour >= endHour || !child.isFile() || BlockSegment.hasSegment(child)) {
+                continue;
+            }
+            List<File> files = hourFiles.get(hour);
+            if (null == files) {
+                files = new ArrayList<>();
+                hourFiles.put(hour, files);
+            }
+            files.add(child);
+        }
+
+        for (Map.Entry<Long, List<File>> entry : hourFiles.entrySet()) {
+            try {
+                consolidate(folder, entry.getKey(), entry.getValue());
+            } catch (Exception ex) {
+                String msg = String.format("Exception while merging hour %d of \"%s\".",
+                        entry.getKey(), folder.getAbsolutePath());
+                logger.error(msg, ex);
+            }
+        }
+    }
+
+    private void consolidate(File folder, long hour, List<File> files) throws IOException {
+        String name = PREFIX + hour;
+        File target = new File(folder, blockSize > 0 ? name + BlockSegment.SUFFIX : name);
+        File manifest = new File(folder, name + MANIFEST_SUFFIX);
+        if (manifest.isFile()) {
+            if (target.isFile()) {
+                deleteSources(folder, readManifest(manifest));
+                return;
+            }
+            manifest.delete();
+        }
+        if (target.exists() || files.size() < 2) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return compareNames(f1.getName(), f2.getName());
+            }
+        });
+        List<String> names = new ArrayList<>();
+        for (File file : files) {
+            names.add(file.getName());
+        }
+        writeManifest(manifest, names);
+
+        File merged = new File(folder, name + ".tmp");
+        try {
+            merge(files, merged);
+            if (blockSize > 0) {
+                BlockSegment.write(merged, target, blockSize);
+            } else if (!merged.renameTo(target)) {
+                throw new IOException("Cannot write \"" + target.getAbsolutePath() + "\".");
+            }
+        } catch (IOException ex) {
+            manifest.delete();
+            throw ex;
+        } finally {
+            merged.delete();
+        }
+        if (blockSize <= 0) {
+            ArchiveIndex.write(target);
+        }
+        deleteSources(folder, names);
+
+        ++hours;
+        sources += files.size();
+        bytes += target.length();
+        millis += System.currentTimeMillis() - start;
+    }
+
+    /**
+     * Orders &lt;epoch&gt;-&lt;count&gt; names as numbers, like
+     * the current folder is processed.
+     */
+    private static int compareNames(String name1, String name2) {
+        String[] arr1 = name1.split("[-.]");
+        String[] arr2 = name2.split("[-.]");
+        for (int i = 0; i < 2; ++i) {
+            int cmp = Long.compare(Long.parseLong(arr1[i]), Long.parseLong(arr2[i]));
+            if (0 != cmp) {
+                return cmp;
+            }
+        }
+        return name1.compareTo(name2);
+    }
+
+    private static void merge(List<File> files, File merged) throws IOException {
+        List<Source> sources = new ArrayList<>();
+        PriorityQueue<Source> queue = new PriorityQueue<>(files.size(), new Comparator<Source>() {
+            @Override
+            public int compare(Source s1, Source s2) {
+                int cmp = Long.compare(s1.timestamp, s2.timestamp);
+                return 0 != cmp ? cmp : Integer.compare(s1.order, s2.order);
+            }
+        });
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(merged), 1024 * 1024)) {
+            for (File file : files) {
+                Source source = new Source(file, sources.size());
+                sources.add(source);
+                if (source.next()) {
+                    queue.add(source);
+                }
+            }
+            while (!queue.isEmpty()) {
+                Source source = queue.poll();
+                if (source.writeRecord(out)) {
+                    queue.add(source);
+                }
+            }
+        } finally {
+            for (Source source : sources) {
+                source.close();
+            }
+        }
+    }
+
+    private static void writeManifest(File manifest, Collection<String> names) throws IOException {
+        File tmpFile = new File(manifest.getParentFile(), manifest.getName() + ".tmp");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(tmpFile), StandardCharsets.UTF_8))) {
+            for (String name : names) {
+                writer.write(name + "\n");
+            }
+        }
+        if (!tmpFile.renameTo(manifest)) {
+            tmpFile.delete();
+            throw new IOException("Cannot write \"" + manifest.getAbsolutePath() + "\".");
+        }
+    }
+
+    private static List<String> readManifest(File manifest) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(manifest), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    names.add(line);
+                }
+            }
+        }
+        return names;
+    }
+
+    private static void deleteSources(File folder, Collection<String> names) {
+        for (String name : names) {
+            File source = new File(folder, name);
+            ArchiveIndex.getIndexFile(source).delete();
+            if (source.exists() && !source.delete()) {
+                logger.error(String.format("\"%s\" is merged, but could not be deleted.", source.getAbsolutePath()));
+            }
+        }
+    }
+
+    public String getReport() {
+        return "CONSOLIDATION REPORT:"
+                + " hours=" + hours
+                + " source_files=" + sources
+                + " bytes_written=" + bytes
+                + " ms=" + millis
+                + ".";
+    }
+
+    /**
+     * A file being merged, positioned on its next record.
+     */
+    private static class Source implements Closeable {
+
+        private final int order;
+        private final MappedLineReader fileReader;
+        private final BlockSegment segment;
+        private int nextBlock;
+        private BlockSegment.LineReader blockReader;
+
+        private byte[] head;
+        private long timestamp;
+
+        Source(File file, int order) throws IOException {
+            this.order = order;
+            if (BlockSegment.isSegmentFile(file)) {
+                this.segment = BlockSegment.open(file);
+                this.fileReader = null;
+            } else {
+                this.segment = null;
+                this.fileReader = new MappedLineReader(file);
+            }
+        }
+
+        /**
+         * Reads the first line of the next record.
+         *
+         * @return false at the end of the file.
+         */
+        boolean next() throws IOException {
+            ByteLine line = readLine();
+            if (null == line) {
+                return false;
+            }
+            head = line.toBytes();
+            timestamp = ArchiveIndex.parseTimestamp(line);
+            return true;
+        }
+
+        /**
+         * Writes the current record and reads the first line of the next one.
+         *
+         * @return false at the end of the file.
+         */
+        boolean writeRecord(OutputStream out) throws IOException {
+            out.write(head);
+            out.write('\n');
+            ByteLine line;
+            while ((line = readLine()) != null) {
+                long next = ArchiveIndex.parseTimestamp(line);
+                if (next >= 0L) {
+                    head = line.toBytes();
+                    timestamp = next;
+                    return true;
+                }
+                for (int i = 0; i < line.length(); ++i) {
+                    out.write(line.byteAt(i));
+                }
+                out.write('\n');
+            }
+            return false;
+        }
+
+        private ByteLine readLine() throws IOException {
+            if (null != fileReader) {
+                return fileReader.readLine();
+            }
+            while (true) {
+                if (null != blockReader) {
+                    ByteLine line = blockReader.readLine();
+                    if (null != line) {
+                        return line;
+                    }
+                }
+                if (nextBlock >= segment.getBlocks().size()) {
+                    return null;
+                }
+                blockReader = segment.read(segment.getBlocks().get(nextBlock++));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (null != fileReader) {
+                fileReader.close();
+            }
+        }
+    }
+
+    /**
+     * Merges every month folder of the archive up to the current hour.<br>
+     * Usage: <code>ArchiveConsolidator &lt;archive dir&gt; [block size in
+     * KB]</code>
+     */
+    public static void main(String[] args) {
+        PropertyConfigurator.configure("log4j.properties");
+        if (args.length < 1) {
+            System.err.println("Usage: ArchiveConsolidator <archive dir> [block size in KB]");
+            System.exit(1);
+        }
+        int blockSize = args.length > 1 ? Integer.parseInt(args[1]) * 1024 : 0;
+        ArchiveConsolidator consolidator = new ArchiveConsolidator(blockSize);
+        long endHour = Long.parseLong(new SimpleDateFormat("yyyyMMddHH").format(new Date()));
+        File[] folders = new File(args[0]).listFiles();
+        if (null != folders) {
+            for (File folder : folders) {
+                if (folder.isDirectory()) {
+                    consolidator.consolidate(folder, endHour);
+                }
+            }
+        }
+        logger.info(consolidator.getReport());
+    }
+}
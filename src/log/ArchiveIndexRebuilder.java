@@ -0,0 +1,96 @@
+package log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import log.io.ArchiveIndex;
+import log.io.BlockSegment;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PropertyConfigurator;
+
+/**
+ * Writes the sidecar index of archived files that have none, or a stale
+ * one; a {@link BlockSegment} carries its own.<br>
+ * Usage: <code>ArchiveIndexRebuilder [-f] &lt;dir&gt;...</code>, where a dir
+ * is the archive folder or one of its month folders; -f rewrites every
+ * index.
+ *
+ * @author sazzad
+ */
+public class ArchiveIndexRebuilder {
+
+    private static final Logger logger = Logger.getLogger(ArchiveIndexRebuilder.class);
+
+    private final boolean force;
+    private long files, built, failed, bytes;
+
+    public ArchiveIndexRebuilder(boolean force) {
+        this.force = force;
+    }
+
+    public void rebuild(File dir) {
+        File[] children = dir.listFiles();
+        if (null == children) {
+            logger.error(String.format("\"%s\" is not a directory.", dir.getAbsolutePath()));
+            return;
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            if (child.isDirectory()) {
+                rebuild(child);
+            } else if (!ArchiveIndex.isIndexFile(child) && !BlockSegment.isSegmentFile(child)
+                    && !ArchiveConsolidator.isManifestFile(child) && !child.getName().endsWith(".tmp")) {
+                rebuildFile(child);
+            }
+        }
+    }
+
+    private void rebuildFile(File file) {
+        ++files;
+        try {
+            if (!force && null != ArchiveIndex.read(file)) {
+                return;
+            }
+            ArchiveIndex.write(file);
+            ++built;
+            bytes += file.length();
+        } catch (Exception ex) {
+            ++failed;
+            String msg = String.format("Exception while indexing file \"%s\".", file.getAbsolutePath());
+            logger.error(msg, ex);
+        }
+    }
+
+    public String getReport() {
+        return "INDEX REPORT:"
+                + " files=" + files
+                + " built=" + built
+                + " failed=" + failed
+                + " mb_read=" + bytes / (1024 * 1024)
+                + ".";
+    }
+
+    public static void main(String[] args) {
+        PropertyConfigurator.configure("log4j.properties");
+        boolean force = false;
+        List<File> dirs = new ArrayList<>();
+        for (String arg : args) {
+            if ("-f".equals(arg)) {
+                force = true;
+            } else {
+                dirs.add(new File(arg));
+            }
+        }
+        if (dirs.isEmpty()) {
+            System.err.println("Usage: ArchiveIndexRebuilder [-f] <dir>...");
+            System.exit(1);
+        }
+
+        ArchiveIndexRebuilder rebuilder = new ArchiveIndexRebuilder(force);
+        for (File dir : dirs) {
+            rebuilder.rebuild(dir);
+        }
+        logger.info(rebuilder.getReport());
+    }
+}
@@ -0,0 +1,152 @@
+package log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import log.analyzers.Analyzer;
+import log.io.MappedLineReader;
+import log.parser.LogRecord;
+import log.parser.LogTokenizer;
+
+/**
+ * Parses one large file on a {@link ForkJoinPool}.<br>
+ * The file is split at line boundaries into chunks of about
+ * <code>chunkSize</code> bytes. Each chunk is parsed into partials of the
+ * dispatcher's analyzers ({@link Analyzer#newPartial()}), neighbouring
+ * partials are merged pairwise in file order as the tasks join, and the
+ * result is merged into the dispatcher's analyzers on the calling thread,
+ * so only that thread reads from the database.
+ *
+ * @author sazzad
+ */
+public class ChunkedFileParser {
+
+    private final ForkJoinPool pool;
+    private final long chunkSize;
+
+    public ChunkedFileParser(ForkJoinPool pool, long chunkSize) {
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * @return {lines matched, lines read}
+     */
+    public long[] parse(AnalyzerDispatcher dispatcher, File file) throws IOException {
+        long[] boundaries = MappedLineReader.splitAtLines(file, chunkSize);
+        List<Analyzer> analyzers = new ArrayList<>(dispatcher.getAnalyzers());
+
+        Partial result;
+        try {
+            result = pool.invoke(new ChunkTask(file, analyzers, boundaries, 0, boundaries.length - 1));
+        } catch (RuntimeException ex) {
+            for (Throwable cause = ex; null != cause; cause = cause.getCause()) {
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+            }
+            throw ex;
+        }
+
+        List<Analyzer> partials = new ArrayList<>(result.dispatcher.getAnalyzers());
+        for (int i = 0; i < analyzers.size(); ++i) {
+            analyzers.get(i).merge(partials.get(i));
+        }
+        dispatcher.mergeCounters(result.dispatcher);
+        return new long[]{result.match, result.all};
+    }
+
+    /**
+     * The analyzers and counters of a run of chunks.
+     */
+    private static class Partial {
+
+        private final AnalyzerDispatcher dispatcher;
+        private long match, all;
+
+        Partial(Collection<Analyzer> parents) {
+            List<Analyzer> partials = new ArrayList<>(parents.size());
+            for (Analyzer parent : parents) {
+                partials.add(parent.newPartial());
+            }
+            this.dispatcher = new AnalyzerDispatcher(partials);
+        }
+
+        void merge(Partial other) {
+            List<Analyzer> partials = new ArrayList<>(dispatcher.getAnalyzers());
+            List<Analyzer> others = new ArrayList<>(other.dispatcher.getAnalyzers());
+            for (int i = 0; i < partials.size(); ++i) {
+                partials.get(i).merge(others.get(i));
+            }
+            dispatcher.mergeCounters(other.dispatcher);
+            match += other.match;
+            all += other.all;
+        }
+    }
+
+    /**
+     * Parses chunks [first, last) of the file.
+     */
+    private static class ChunkTask extends RecursiveTask<Partial> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final File file;
+        private final List<Analyzer> parents;
+        private final long[] boundaries;
+        private final int first, last;
+
+        ChunkTask(File file, List<Analyzer> parents, long[] boundaries, int first, int last) {
+            this.file = file;
+            this.parents = parents;
+            this.boundaries = boundaries;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        protected Partial compute() {
+            if (last - first <= 1) {
+                return parseChunk();
+            }
+            int middle = (first + last) >>> 1;
+            ChunkTask left = new ChunkTask(file, parents, boundaries, first, middle);
+            left.fork();
+            Partial right = new ChunkTask(file, parents, boundaries, middle, last).compute();
+            Partial result = left.join();
+            result.merge(right);
+            return result;
+        }
+
+        private Partial parseChunk() {
+            Partial partial = new Partial(parents);
+            LogTokenizer tokenizer = new LogTokenizer();
+            LogRecord record = new LogRecord();
+            try (MappedLineReader reader = new MappedLineReader(file, boundaries[first], boundaries[last],
+                    MappedLineReader.DEFAULT_SEGMENT_SIZE)) {
+                CharSequence line;
+                while ((line = reader.readLine()) != null) {
+                    if (tokenizer.tokenize(line, record) && partial.dispatcher.dispatch(record)) {
+                        ++partial.match;
+                    }
+                    ++partial.all;
+                }
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+            return partial;
+        }
+    }
+}
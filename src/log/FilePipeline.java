@@ -0,0 +1,267 @@
+package log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import log.io.MappedLineReader;
+import org.apache.log4j.Logger;
+
+/**
+ * Runs the files of the current folder through three threads connected by
+ * bounded queues:
+ * <ul>
+ * <li>reader: opens the next file and loads its first segment into memory
+ * (read ahead),</li>
+ * <li>parser: tokenizes the file into an idle analyzer set, which also
+ * aggregates,</li>
+ * <li>writer: saves, archives and commits the file, then hands the analyzer
+ * set back.</li>
+ * </ul>
+ * Files stay in order, as each stage is one thread. The queues hold at most
+ * <code>depth</code> files; the analyzer sets bound how many parsed files
+ * wait for the writer. Per stage, the report shows the busy time, the time
+ * it waited for input (starved), the time it waited for an analyzer set or
+ * for room in the next queue (blocked), and the depth of its input queue.
+ *
+ * @author sazzad
+ */
+public class FilePipeline {
+
+    private static final Logger logger = Logger.getLogger(FilePipeline.class);
+
+    /**
+     * The work of the parser and writer stages.
+     */
+    public interface Handler {
+
+        /**
+         * Runs on the parser thread, with the analyzer set of a file saved
+         * earlier; the handler clears it.
+         *
+         * @return {lines matched, lines read}
+         */
+        long[] parse(AnalyzerDispatcher dispatcher, MappedLineReader reader, File file) throws Exception;
+
+        /**
+         * Runs on the writer thread.
+         */
+        void save(AnalyzerDispatcher dispatcher, File file, long match, long all) throws Exception;
+
+        /**
+         * Runs on the writer thread for a file that could not be read,
+         * parsed or saved.
+         */
+        void failed(AnalyzerDispatcher dispatcher, File file, Exception ex);
+    }
+
+    private static final Item END = new Item(null);
+
+    private final int depth;
+    private final Handler handler;
+    private final Stage reader = new Stage("reader");
+    private final Stage parser = new Stage("parser");
+    private final Stage writer = new Stage("writer");
+
+    public FilePipeline(int depth, Handler handler) {
+        this.depth = depth;
+        this.handler = handler;
+    }
+
+    /**
+     * @param sets the analyzer sets to parse into, at least two so the
+     * parser and the writer can work at the same time
+     */
+    public void run(final Collection<File> files, List<AnalyzerDispatcher> sets) throws InterruptedException {
+        final BlockingQueue<Item> readQueue = new ArrayBlockingQueue<>(depth);
+        final BlockingQueue<Item> writeQueue = new ArrayBlockingQueue<>(depth);
+        final BlockingQueue<AnalyzerDispatcher> idle = new ArrayBlockingQueue<>(sets.size(), false, sets);
+
+        Thread readerThread = new Thread("pipeline-reader") {
+            @Override
+            public void run() {
+                try {
+                    for (File file : files) {
+                        read(file, readQueue);
+                    }
+                    readQueue.put(END);
+                } catch (InterruptedException ex) {
+                    logger.error("Pipeline reader interrupted.", ex);
+                }
+            }
+        };
+        Thread parserThread = new Thread("pipeline-parser") {
+            @Override
+            public void run() {
+                try {
+                    Item item;
+                    while (END != (item = parser.take(readQueue))) {
+                        parse(item, idle, writeQueue);
+                    }
+                    writeQueue.put(END);
+                } catch (InterruptedException ex) {
+                    logger.error("Pipeline parser interrupted.", ex);
+                }
+            }
+        };
+        Thread writerThread = new Thread("pipeline-writer") {
+            @Override
+            public void run() {
+                try {
+                    Item item;
+                    while (END != (item = writer.take(writeQueue))) {
+                        write(item, idle);
+                    }
+                } catch (InterruptedException ex) {
+                    logger.error("Pipeline writer interrupted.", ex);
+                }
+            }
+        };
+
+        readerThread.start();
+        parserThread.start();
+        writerThread.start();
+        try {
+            readerThread.join();
+            parserThread.join();
+            writerThread.join();
+        } finally {
+            readerThread.interrupt();
+            parserThread.interrupt();
+            writerThread.interrupt();
+        }
+        logger.info(getReport());
+    }
+
+    public String getReport() {
+        return "PIPELINE REPORT: depth=" + depth + " " + reader + " " + parser + " " + writer + ".";
+    }
+
+    private void read(File file, BlockingQueue<Item> readQueue) throws InterruptedException {
+        long start = System.nanoTime();
+        Item item = new Item(file);
+        try {
+            item.reader = new MappedLineReader(file);
+            item.reader.prefetch();
+        } catch (Exception ex) {
+            item.error = ex;
+            close(item);
+        }
+        reader.busy(start);
+        reader.put(readQueue, item);
+    }
+
+    private void parse(Item item, BlockingQueue<AnalyzerDispatcher> idle, BlockingQueue<Item> writeQueue)
+            throws InterruptedException {
+        long waitStart = System.nanoTime();
+        item.dispatcher = idle.take();
+        parser.blockedNanos += System.nanoTime() - waitStart;
+
+        long start = System.nanoTime();
+        if (null == item.error) {
+            try {
+                long[] counts = handler.parse(item.dispatcher, item.reader, item.file);
+                item.match = counts[0];
+                item.all = counts[1];
+            } catch (Exception ex) {
+                item.error = ex;
+            }
+        }
+        close(item);
+        parser.busy(start);
+        parser.put(writeQueue, item);
+    }
+
+    private void write(Item item, BlockingQueue<AnalyzerDispatcher> idle) {
+        long start = System.nanoTime();
+        if (null == item.error) {
+            try {
+                handler.save(item.dispatcher, item.file, item.match, item.all);
+            } catch (Exception ex) {
+                item.error = ex;
+            }
+        }
+        if (null != item.error) {
+            handler.failed(item.dispatcher, item.file, item.error);
+        }
+        writer.busy(start);
+        idle.add(item.dispatcher);
+    }
+
+    private static void close(Item item) {
+        if (null != item.reader) {
+            try {
+                item.reader.close();
+            } catch (IOException ex) {
+                logger.error("", ex);
+            }
+            item.reader = null;
+        }
+    }
+
+    private static class Item {
+
+        private final File file;
+        private MappedLineReader reader;
+        private AnalyzerDispatcher dispatcher;
+        private Exception error;
+        private long match, all;
+
+        Item(File file) {
+            this.file = file;
+        }
+    }
+
+    /**
+     * Counters of one stage; each is only written by the stage's thread and
+     * read after it is joined.
+     */
+    private class Stage {
+
+        private final String name;
+        private long files;
+        private long busyNanos, starvedNanos, blockedNanos;
+        private long depthSum, takes;
+        private int maxDepth;
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        Item take(BlockingQueue<Item> queue) throws InterruptedException {
+            int size = queue.size();
+            depthSum += size;
+            ++takes;
+            maxDepth = Math.max(maxDepth, size);
+
+            long start = System.nanoTime();
+            Item item = queue.take();
+            starvedNanos += System.nanoTime() - start;
+            return item;
+        }
+
+        void put(BlockingQueue<Item> queue, Item item) throws InterruptedException {
+            long start = System.nanoTime();
+            queue.put(item);
+            blockedNanos += System.nanoTime() - start;
+        }
+
+        void busy(long start) {
+            busyNanos += System.nanoTime() - start;
+            ++files;
+        }
+
+        @Override
+        public String toString() {
+            String queue = 0L == takes ? ""
+                    : " avg_queue=" + String.format("%.2f", (double) depthSum / takes) + " max_queue=" + maxDepth;
+            return name + "=[files=" + files
+                    + " busy_ms=" + busyNanos / 1000000L
+                    + " starved_ms=" + starvedNanos / 1000000L
+                    + " blocked_ms=" + blockedNanos / 1000000L
+                    + queue + "]";
+        }
+    }
+}
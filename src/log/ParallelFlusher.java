@@ -0,0 +1,239 @@
+package log;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import log.analyzers.Analyzer;
+import org.apache.log4j.Logger;
+
+/**
+ * Saves the analyzers of a file in parallel over a fixed pool of
+ * connections.<br>
+ * Analyzer i of a set is built on connection i modulo the pool size (its
+ * lane), and a lane saves its analyzers and commits on its own thread. Each
+ * lane writes one analytics_file_ledger row per analyzer in the same
+ * transaction, so after a crash between the commits of two lanes the ledger
+ * tells which analyzers of the file are already saved: the file is parsed
+ * again and only the others are saved. The rows of a file are deleted once
+ * it is archived; {@link #repair(File)} drops rows of files archived just
+ * before a crash.
+ *
+ * @author sazzad
+ */
+public class ParallelFlusher implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(ParallelFlusher.class);
+
+    private static final String SELECT_LEDGER_SQL = "SELECT analyzer FROM analytics_file_ledger WHERE filename = ?";
+    private static final String SELECT_LEDGER_FILES_SQL = "SELECT DISTINCT filename FROM analytics_file_ledger";
+    private static final String INSERT_LEDGER_SQL
+            = "INSERT INTO analytics_file_ledger (filename, analyzer, time) VALUES (?, ?, ?)";
+    private static final String DELETE_LEDGER_SQL = "DELETE FROM analytics_file_ledger WHERE filename = ?";
+
+    private final List<Connection> connections;
+    private final ExecutorService executor;
+
+    /**
+     * @param connections not auto-committing; closed by {@link #close()}
+     */
+    public ParallelFlusher(List<Connection> connections) {
+        this.connections = new ArrayList<>(connections);
+        this.executor = Executors.newFixedThreadPool(connections.size());
+    }
+
+    /**
+     * @return the connection analyzer <code>index</code> of a set must use.
+     */
+    public Connection getConnection(int index) {
+        return connections.get(index % connections.size());
+    }
+
+    /**
+     * Saves the analyzers not yet in the ledger for the file, lane by lane
+     * in parallel.
+     *
+     * @param analyzers in the order they were built with
+     * {@link #getConnection(int)}
+     * @throws Exception if any lane failed; the other lanes stay committed.
+     */
+    public void flush(String filename, Collection<Analyzer> analyzers) throws Exception {
+        Set<String> saved = getSaved(filename);
+
+        List<List<Analyzer>> lanes = new ArrayList<>();
+        for (int i = 0; i < connections.size(); ++i) {
+            lanes.add(new ArrayList<Analyzer>());
+        }
+        int index = 0;
+        for (Analyzer analyzer : analyzers) {
+            lanes.get(index++ % connections.size()).add(analyzer);
+        }
+
+        final Map<String, Long> durations = new LinkedHashMap<>();
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < lanes.size(); ++i) {
+            if (!lanes.get(i).isEmpty()) {
+                futures.add(executor.submit(new LaneTask(connections.get(i), filename, lanes.get(i), saved, durations)));
+            }
+        }
+
+        Exception failure = null;
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException ex) {
+                if (null == failure) {
+                    failure = ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+                }
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        synchronized (durations) {
+            for (Map.Entry<String, Long> entry : durations.entrySet()) {
+                sb.append(' ').append(entry.getKey()).append('=').append(entry.getValue()).append("ms");
+            }
+        }
+        logger.info("FLUSH REPORT: filename=" + filename + " lanes=" + futures.size()
+                + " skipped=" + saved.size() + sb + ".");
+        if (null != failure) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Forgets the ledger rows of a file after it is archived.
+     */
+    public void complete(String filename) throws SQLException {
+        Connection connection = connections.get(0);
+        try (PreparedStatement prepStmt = connection.prepareStatement(DELETE_LEDGER_SQL)) {
+            prepStmt.setString(1, filename);
+            prepStmt.execute();
+        }
+        connection.commit();
+    }
+
+    /**
+     * Deletes the ledger rows of files no longer in the current folder, i.e.
+     * archived before their rows were deleted. Rows of files still there
+     * are kept for the next {@link #flush(String, Collection)}.
+     */
+    public void repair(File currentDir) throws SQLException {
+        Connection connection = connections.get(0);
+        connection.rollback();
+        List<String> filenames = new ArrayList<>();
+        try (PreparedStatement prepStmt = connection.prepareStatement(SELECT_LEDGER_FILES_SQL)) {
+            ResultSet rs = prepStmt.executeQuery();
+            while (rs.next()) {
+                filenames.add(rs.getString("filename"));
+            }
+        }
+
+        int archived = 0;
+        for (String filename : filenames) {
+            if (!new File(currentDir, filename).exists()) {
+                complete(filename);
+                ++archived;
+            }
+        }
+        if (!filenames.isEmpty()) {
+            logger.info("LEDGER REPAIR: files=" + filenames.size() + " archived=" + archived
+                    + " pending=" + (filenames.size() - archived) + ".");
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        executor.shutdownNow();
+        for (Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    private Set<String> getSaved(String filename) throws SQLException {
+        Set<String> saved = new HashSet<>();
+        Connection connection = connections.get(0);
+        connection.rollback();
+        try (PreparedStatement prepStmt = connection.prepareStatement(SELECT_LEDGER_SQL)) {
+            prepStmt.setString(1, filename);
+            ResultSet rs = prepStmt.executeQuery();
+            while (rs.next()) {
+                saved.add(rs.getString("analyzer"));
+            }
+        }
+        return saved;
+    }
+
+    private static String nameOf(Analyzer analyzer) {
+        return analyzer.getClass().getSimpleName();
+    }
+
+    /**
+     * Saves the analyzers of one connection and their ledger rows in one
+     * transaction.
+     */
+    private static class LaneTask implements Callable<Void> {
+
+        private final Connection connection;
+        private final String filename;
+        private final List<Analyzer> analyzers;
+        private final Set<String> saved;
+        private final Map<String, Long> durations;
+
+        LaneTask(Connection connection, String filename, List<Analyzer> analyzers,
+                Set<String> saved, Map<String, Long> durations) {
+            this.connection = connection;
+            this.filename = filename;
+            this.analyzers = analyzers;
+            this.saved = saved;
+            this.durations = durations;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            try {
+                connection.rollback();
+                try (PreparedStatement prepStmt = connection.prepareStatement(INSERT_LEDGER_SQL)) {
+                    for (Analyzer analyzer : analyzers) {
+                        String name = nameOf(analyzer);
+                        if (saved.contains(name)) {
+                            continue;
+                        }
+                        long start = System.currentTimeMillis();
+                        analyzer.saveToDB();
+                        synchronized (durations) {
+                            durations.put(name, System.currentTimeMillis() - start);
+                        }
+
+                        prepStmt.setString(1, filename);
+                        prepStmt.setString(2, name);
+                        prepStmt.setLong(3, System.currentTimeMillis());
+                        prepStmt.execute();
+                    }
+                }
+                connection.commit();
+                return null;
+            } catch (Exception ex) {
+                try {
+                    connection.rollback();
+                } catch (SQLException sqlr) {
+                    logger.fatal("Database rollback failed.", sqlr);
+                }
+                throw ex;
+            }
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package log;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import log.analyzers.Analyzer;
+import log.io.ArchiveIndex;
+import log.io.BlockSegment;
+import log.io.MappedLineReader;
+import log.parser.LogRecord;
+import log.parser.LogTokenizer;
+import log.util.Settings;
+import org.apache.log4j.Logger;
+
+/**
+ * Reprocesses archived files for a revisit on a background thread with its
+ * own connection, so the hourly run of the current folder goes on.<br>
+ * The revisited range is deleted and the archive files are listed before
+ * the job starts; files archived later were processed after the delete and
+ * are not revisited again. Files are parsed in batches: each worker takes
+ * the next file of the batch into its partials of the analyzers
+ * ({@link Analyzer#newPartial()}), the partials are merged and saved once
+ * per batch and the batch is committed. A file with an {@link ArchiveIndex}
+ * is skipped if it starts before the lookback time or ends before the
+ * revisit, and otherwise read from the first line of the revisit on. A file
+ * without one is read once: its first timestamp decides whether it is past
+ * the lookback time. Of a {@link BlockSegment}, only the blocks reaching the
+ * start of the revisit are inflated, each by whichever worker takes it.<br>
+ * With a throughput target the workers pause whenever they run ahead of
+ * it, leaving disk and CPU to the hourly run. The analyzers read from the
+ * database are recalculated, and the revisit settings deleted, in the last
+ * commit; if the job fails, the next run starts the revisit over.
+ *
+ * @author sazzad
+ */
+public class RevisitJob extends Thread {
+
+    private static final Logger logger = Logger.getLogger(RevisitJob.class);
+
+    static final int FILES_PER_WORKER = 8;
+    private static final long MB = 1024L * 1024L;
+
+    private static volatile RevisitJob running;
+
+    private final Connection sqlConnection;
+    private final Settings settings;
+    private final List<Analyzer> archiveAnalyzers;
+    private final List<Analyzer> databaseAnalyzers;
+    private final List<File> files;
+    private final long startTime, endTime, lookbackTime;
+    private final int workers;
+    private final long targetBytesPerSec;
+
+    private final AtomicLong bytesRead = new AtomicLong();
+    private long started;
+    private int filesDone;
+    private final AtomicInteger indexed = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicLong bytesInflated = new AtomicLong();
+    private final AtomicLong inflateNanos = new AtomicLong();
+
+    /**
+     * @param sqlConnection owned by the job, which closes it
+     * @param archiveAnalyzers analyzers fed from the archive, already
+     * cleared of the range with deleteFromDB
+     * @param databaseAnalyzers analyzers recalculated from the database once
+     * the archive is done
+     * @param targetMbPerSec the most MB per second to read, 0 for no limit
+     */
+    public RevisitJob(Connection sqlConnection, Settings settings,
+            List<Analyzer> archiveAnalyzers, List<Analyzer> databaseAnalyzers, List<File> files,
+            long startTime, long endTime, long lookbackTime, int workers, long targetMbPerSec) {
+        super("revisit");
+        this.sqlConnection = sqlConnection;
+        this.settings = settings;
+        this.archiveAnalyzers = archiveAnalyzers;
+        this.databaseAnalyzers = databaseAnalyzers;
+        this.files = files;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.lookbackTime = lookbackTime;
+        this.workers = Math.max(1, workers);
+        this.targetBytesPerSec = targetMbPerSec * MB;
+    }
+
+    /**
+     * @return true while a revisit started by any manager is running.
+     */
+    public static boolean isRunning() {
+        RevisitJob job = running;
+        return null != job && job.isAlive();
+    }
+
+    @Override
+    public synchronized void start() {
+        running = this;
+        super.start();
+    }
+
+    @Override
+    public void run() {
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            started = System.currentTimeMillis();
+            List<List<Analyzer>> partials = new ArrayList<>();
+            for (int i = 0; i < workers; ++i) {
+                List<Analyzer> set = new ArrayList<>();
+                for (Analyzer analyzer : archiveAnalyzers) {
+                    set.add(analyzer.newPartial());
+                }
+                partials.add(set);
+            }
+
+            int batchSize = workers * FILES_PER_WORKER;
+            for (int first = 0; first < files.size(); first += batchSize) {
+                List<File> batch = files.subList(first, Math.min(files.size(), first + batchSize));
+                processBatch(executor, batch, partials);
+                filesDone += batch.size();
+                logger.info(getReport());
+            }
+
+            for (Analyzer analyzer : databaseAnalyzers) {
+                analyzer.deleteFromDB(startTime, endTime);
+                analyzer.recalculate(startTime, endTime);
+            }
+            settings.delFeatureSetting(sqlConnection);
+            sqlConnection.commit();
+            logger.info("REVISIT DONE: " + getReport());
+        } catch (Exception ex) {
+            try {
+                sqlConnection.rollback();
+            } catch (SQLException sqlr) {
+                logger.fatal("Database rollback failed.", sqlr);
+            }
+            logger.error("Revisit failed; it starts over with the next run.", ex);
+        } finally {
+            executor.shutdownNow();
+            try {
+                sqlConnection.close();
+            } catch (SQLException ex) {
+                logger.error("", ex);
+            }
+        }
+    }
+
+    public String getReport() {
+        long elapsed = Math.max(1L, System.currentTimeMillis() - started);
+        long bytes = bytesRead.get();
+        double mbPerSec = bytes * 1000.0 / elapsed / MB;
+        long inflated = bytesInflated.get();
+        double inflateMbPerSec = inflated * 1e9 / Math.max(1L, inflateNanos.get()) / MB;
+        long etaSec = 0 == filesDone ? -1L : elapsed * (files.size() - filesDone) / filesDone / 1000L;
+        return "REVISIT PROGRESS:"
+                + " files=" + filesDone + "/" + files.size()
+                + " indexed=" + indexed.get()
+                + " skipped=" + skipped.get()
+                + " mb_read=" + bytes / MB
+                + " mb_per_sec=" + String.format("%.1f", mbPerSec)
+                + " target_mb_per_sec=" + targetBytesPerSec / MB
+                + " mb_inflated=" + inflated / MB
+                + " inflate_mb_per_sec=" + String.format("%.1f", inflateMbPerSec)
+                + " eta_sec=" + etaSec
+                + ".";
+    }
+
+    private void processBatch(ExecutorService executor, List<File> batch, List<List<Analyzer>> partials)
+            throws Exception {
+        final List<Part> parts = new ArrayList<>();
+        for (File file : batch) {
+            addParts(file, parts);
+        }
+
+        final AtomicInteger next = new AtomicInteger();
+        List<Future<Void>> futures = new ArrayList<>();
+        for (final List<Analyzer> set : partials) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    AnalyzerDispatcher dispatcher = new AnalyzerDispatcher(set);
+                    LogTokenizer tokenizer = new LogTokenizer();
+                    LogRecord record = new LogRecord();
+                    for (int i = next.getAndIncrement(); i < parts.size(); i = next.getAndIncrement()) {
+                        Part part = parts.get(i);
+                        try {
+                            if (null == part.block) {
+                                processFile(dispatcher, tokenizer, record, part.file, part.offset, part.check);
+                            } else {
+                                processBlock(dispatcher, tokenizer, record, part.segment, part.block);
+                            }
+                        } catch (IOException ex) {
+                            String msg = String.format("Exception while processing file \"%s\".",
+                                    part.file.getAbsolutePath());
+                            logger.error(msg, ex);
+                        }
+                        throttle();
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException ex) {
+                throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+            }
+        }
+
+        for (List<Analyzer> set : partials) {
+            for (int i = 0; i < archiveAnalyzers.size(); ++i) {
+                archiveAnalyzers.get(i).merge(set.get(i));
+                set.get(i).clear();
+            }
+        }
+        for (Analyzer analyzer : archiveAnalyzers) {
+            analyzer.saveToDB();
+            analyzer.clear();
+        }
+        sqlConnection.commit();
+    }
+
+    /**
+     * Adds what must be read of the file: the blocks of a segment that reach
+     * the start of the revisit, the rest of a file from its index, or all of
+     * a file without one.
+     */
+    private void addParts(File file, List<Part> parts) {
+        try {
+            if (BlockSegment.isSegmentFile(file)) {
+                BlockSegment segment = BlockSegment.open(file);
+                indexed.incrementAndGet();
+                if (segment.getFirstHour() < lookbackTime || segment.getMaxHour() < startTime) {
+                    skipped.incrementAndGet();
+                    return;
+                }
+                for (BlockSegment.Block block : segment.getBlocks()) {
+                    if (block.getMaxHour() >= startTime) {
+                        parts.add(new Part(file, segment, block, 0L, false));
+                    }
+                }
+                return;
+            }
+
+            ArchiveIndex index = ArchiveIndex.read(file);
+            if (null == index) {
+                parts.add(new Part(file, null, null, 0L, true));
+                return;
+            }
+            indexed.incrementAndGet();
+            if (!index.hasTimestamps() || index.getFirstHour() < lookbackTime || index.getMaxHour() < startTime) {
+                skipped.incrementAndGet();
+                return;
+            }
+            parts.add(new Part(file, null, null, index.getOffset(startTime), false));
+        } catch (Exception ex) {
+            String msg = String.format("Exception while processing file \"%s\".", file.getAbsolutePath());
+            logger.error(msg, ex);
+        }
+    }
+
+    /**
+     * @param check whether the first timestamp is checked against the
+     * lookback time, when the file has no index
+     */
+    private void processFile(AnalyzerDispatcher dispatcher, LogTokenizer tokenizer, LogRecord record,
+            File file, long offset, boolean check) throws IOException {
+        try (MappedLineReader reader = new MappedLineReader(file, offset, -1L,
+                MappedLineReader.DEFAULT_SEGMENT_SIZE)) {
+            CharSequence line;
+            while ((line = reader.readLine()) != null) {
+                if (!tokenizer.tokenize(line, record)) {
+                    continue;
+                }
+                if (check) {
+                    if (record.getHour() < lookbackTime) {
+                        break;
+                    }
+                    check = false;
+                }
+                if (startTime <= record.getHour()) {
+                    dispatcher.dispatch(record);
+                }
+            }
+            bytesRead.addAndGet(reader.getPosition() - offset);
+        }
+    }
+
+    private void processBlock(AnalyzerDispatcher dispatcher, LogTokenizer tokenizer, LogRecord record,
+            BlockSegment segment, BlockSegment.Block block) throws IOException {
+        long start = System.nanoTime();
+        BlockSegment.LineReader reader = segment.read(block);
+        inflateNanos.addAndGet(System.nanoTime() - start);
+        bytesRead.addAndGet(block.getCompressedLength());
+        bytesInflated.addAndGet(block.getRawLength());
+
+        CharSequence line;
+        while ((line = reader.readLine()) != null) {
+            if (tokenizer.tokenize(line, record) && startTime <= record.getHour()) {
+                dispatcher.dispatch(record);
+            }
+        }
+    }
+
+    /**
+     * Sleeps while the bytes read are ahead of the target rate.
+     */
+    private void throttle() throws InterruptedException {
+        if (targetBytesPerSec <= 0L) {
+            return;
+        }
+        long due = started + bytesRead.get() * 1000L / targetBytesPerSec;
+        long wait = due - System.currentTimeMillis();
+        if (wait > 0L) {
+            Thread.sleep(wait);
+        }
+    }
+
+    /**
+     * @return the files of the folders, in name order within each, without
+     * the sources of an hour already merged by {@link ArchiveConsolidator}
+     * and the plain files already compressed into a {@link BlockSegment}.
+     */
+    static List<File> listFiles(Collection<File> folders) throws IOException {
+        List<File> files = new ArrayList<>();
+        for (File folder : folders) {
+            File[] children = folder.listFiles();
+            if (null == children) {
+                continue;
+            }
+            Arrays.sort(children);
+            Set<String> merged = ArchiveConsolidator.findMergedSources(children);
+            for (File child : children) {
+                if (child.isFile() && !ArchiveIndex.isIndexFile(child) && !ArchiveConsolidator.isManifestFile(child)
+                        && !child.getName().endsWith(".tmp") && !merged.contains(child.getName())
+                        && !BlockSegment.hasSegment(child)) {
+                    files.add(child);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * A file, or a block of a segment, one worker reads.
+     */
+    private static class Part {
+
+        private final File file;
+        private final BlockSegment segment;
+        private final BlockSegment.Block block;
+        private final long offset;
+        private final boolean check;
+
+        Part(File file, BlockSegment segment, BlockSegment.Block block, long offset, boolean check) {
+            this.file = file;
+            this.segment = segment;
+            this.block = block;
+            this.offset = offset;
+            this.check = check;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package log;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The byte offsets up to which files of the current folder were read while
+ * Flume was still writing them, in analytics_tail_checkpoint.<br>
+ * An offset is written on the connection the aggregates of the lines before
+ * it are saved on, and committed with them, so a restart goes on exactly
+ * after the last line saved.
+ *
+ * @author sazzad
+ */
+public class TailCheckpoint {
+
+    private static final String SELECT_SQL = "SELECT filename, byte_offset FROM analytics_tail_checkpoint";
+    private static final String UPSERT_SQL
+            = "INSERT INTO analytics_tail_checkpoint (filename, byte_offset, time) VALUES (?, ?, ?)"
+            + " ON DUPLICATE KEY UPDATE byte_offset = VALUES(byte_offset), time = VALUES(time)";
+    private static final String DELETE_SQL = "DELETE FROM analytics_tail_checkpoint WHERE filename = ?";
+
+    /**
+     * @return the committed offset of every file tailed and not archived yet.
+     */
+    public static Map<String, Long> load(Connection sqlConnection) throws SQLException {
+        Map<String, Long> offsets = new HashMap<>();
+        try (PreparedStatement prepStmt = sqlConnection.prepareStatement(SELECT_SQL)) {
+            ResultSet rs = prepStmt.executeQuery();
+            while (rs.next()) {
+                offsets.put(rs.getString("filename"), rs.getLong("byte_offset"));
+            }
+        }
+        return offsets;
+    }
+
+    /**
+     * Sets the offset of a file; not committed.
+     */
+    public static void save(Connection sqlConnection, String filename, long offset) throws SQLException {
+        try (PreparedStatement prepStmt = sqlConnection.prepareStatement(UPSERT_SQL)) {
+            prepStmt.setString(1, filename);
+            prepStmt.setLong(2, offset);
+            prepStmt.setLong(3, System.currentTimeMillis());
+            prepStmt.execute();
+        }
+    }
+
+    /**
+     * Forgets a file once it is archived; not committed.
+     */
+    public static void delete(Connection sqlConnection, String filename) throws SQLException {
+        try (PreparedStatement prepStmt = sqlConnection.prepareStatement(DELETE_SQL)) {
+            prepStmt.setString(1, filename);
+            prepStmt.execute();
+        }
+    }
+}
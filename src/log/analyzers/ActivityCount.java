@@ -4,13 +4,15 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import log.parser.LogRecord;
+import log.parser.LogTokenizer;
+import log.parser.MethodDictionary;
+import log.util.HourCounter;
+import log.util.KeyIndex;
 import log.util.Tools;
 
 /**
@@ -19,14 +21,19 @@ import log.util.Tools;
  */
 public class ActivityCount implements Analyzer {
 
-    private final Map<String, Map<Long, Long>> countMap = new HashMap<String, Map<Long, Long>>();
+    private final KeyIndex<String> activities;
+    private final HourCounter counter = new HourCounter();
 
-    private final Pattern pattern = Pattern.compile("^(\\d{17})\\s+INFO - R \\S+ (\\w+) .*$");
+    /**
+     * Activity ids by method id, built from methodActivityMap; null for a
+     * method without activities.
+     */
+    private final int[][] methodActivityIds;
 
     private final String ACTIVITY_METHOD_SQL = "SELECT activity, method FROM analytics_activity_method_map";
 
-    private final Map<String, Set<String>> methodActivityMap = new HashMap<String, Set<String>>();
-    private final Map<String, Set<String>> activityMethodMap = new HashMap<String, Set<String>>();
+    private final Map<String, Set<String>> methodActivityMap;
+    private final Map<String, Set<String>> activityMethodMap;
 
     private final String ACTIVITY_COUNT_SQL = "INSERT INTO analytics_activity_count (activity, time, count) VALUES (?,?,?)"
             + " ON DUPLICATE KEY UPDATE count = count + VALUES(count)";
@@ -41,12 +48,27 @@ public class ActivityCount implements Analyzer {
 
     public ActivityCount(Connection sqlConnection) throws SQLException {
         this.sqlConnection = sqlConnection;
-        initActivity();
+        this.activities = new KeyIndex<>();
+        this.methodActivityMap = new HashMap<String, Set<String>>();
+        this.activityMethodMap = new HashMap<String, Set<String>>();
+        this.methodActivityIds = initActivity();
+    }
+
+    /**
+     * Shares the activity maps of the parent, which are not changed after
+     * construction.
+     */
+    private ActivityCount(ActivityCount parent) {
+        this.sqlConnection = parent.sqlConnection;
+        this.activities = parent.activities;
+        this.methodActivityMap = parent.methodActivityMap;
+        this.activityMethodMap = parent.activityMethodMap;
+        this.methodActivityIds = parent.methodActivityIds;
     }
 
     @Override
     public void clear() {
-        countMap.clear();
+        counter.clear();
     }
 
     @Override
@@ -54,7 +76,7 @@ public class ActivityCount implements Analyzer {
         clear();
     }
 
-    private void initActivity() throws SQLException {
+    private int[][] initActivity() throws SQLException {
 
         try (PreparedStatement statement = sqlConnection.prepareStatement(ACTIVITY_METHOD_SQL)) {
             ResultSet rs = statement.executeQuery();
@@ -65,6 +87,21 @@ public class ActivityCount implements Analyzer {
                 buildActivityMethodMap(activity, method);
             }
         }
+
+        MethodDictionary dictionary = MethodDictionary.getInstance();
+        for (String method : methodActivityMap.keySet()) {
+            dictionary.idOf(method);
+        }
+        int[][] methodActivityIds = new int[dictionary.size()][];
+        for (Map.Entry<String, Set<String>> entry : methodActivityMap.entrySet()) {
+            int[] ids = new int[entry.getValue().size()];
+            int i = 0;
+            for (String activity : entry.getValue()) {
+                ids[i++] = activities.idOf(activity);
+            }
+            methodActivityIds[dictionary.find(entry.getKey())] = ids;
+        }
+        return methodActivityIds;
     }
 
     private void buildActivity(String activity, String method) {
@@ -91,41 +128,42 @@ public class ActivityCount implements Analyzer {
     }
 
     @Override
-    public boolean processLog(String log) {
-        Matcher matcher = pattern.matcher(log);
-        if (matcher.matches()) {
-            Long time = Long.parseLong(matcher.group(1).substring(0, 10));
-            String method = matcher.group(2);
-            if (!methodActivityMap.containsKey(method)) {
-                return false;
-            }
+    public Subscription getSubscription() {
+        return Subscription.requests(methodActivityMap.keySet());
+    }
 
-            Collection<String> activities = methodActivityMap.get(method);
-            updateCounter(activities, time);
+    @Override
+    public Analyzer newPartial() {
+        return new ActivityCount(this);
+    }
 
-            return true;
-        }
-        return false;
+    @Override
+    public void merge(Analyzer partial) {
+        counter.addAll(((ActivityCount) partial).counter);
     }
 
-    private void updateCounter(Collection<String> activities, Long time) {
-        Map<Long, Long> childMap;
-        for (String activity : activities) {
-            if (countMap.containsKey(activity)) {
-                childMap = countMap.get(activity);
-            }
-            else {
-                childMap = new HashMap<Long, Long>();
-                countMap.put(activity, childMap);
-            }
+    @Override
+    public boolean processLog(String log) {
+        LogRecord record = LogTokenizer.parse(log);
+        return null != record && processRecord(record);
+    }
 
-            if (childMap.containsKey(time)) {
-                childMap.put(time, childMap.get(time) + 1L);
+    @Override
+    public boolean processRecord(LogRecord record) {
+        if (record.isRequest()) {
+            int methodId = record.getMethodId();
+            int[] ids = methodId < methodActivityIds.length ? methodActivityIds[methodId] : null;
+            if (null == ids) {
+                return false;
             }
-            else {
-                childMap.put(time, 1L);
+
+            long time = record.getHour();
+            for (int id : ids) {
+                counter.increment(id, time);
             }
+            return true;
         }
+        return false;
     }
 
     @Override
@@ -133,29 +171,22 @@ public class ActivityCount implements Analyzer {
 
         try (PreparedStatement prepStmt = sqlConnection.prepareStatement(ACTIVITY_COUNT_SQL)) {
             int batchLimit = Tools.SQL_BATCH_LIMIT;
-            for (Map.Entry<String, Map<Long, Long>> parentEntry : countMap.entrySet()) {
-                String activity = parentEntry.getKey();
-                Map<Long, Long> childEntry = parentEntry.getValue();
-                for (Map.Entry<Long, Long> entry : childEntry.entrySet()) {
-                    Long time = entry.getKey();
-                    Long count = entry.getValue();
-
-                    prepStmt.setString(1, activity);
-                    prepStmt.setLong(2, time);
-                    prepStmt.setLong(3, count);
-                    prepStmt.addBatch();
-                    prepStmt.clearParameters();
-                    batchLimit -= 1;
-
-                    if (batchLimit <= 0) {
-                        prepStmt.executeBatch();
-                        prepStmt.clearBatch();
-                        batchLimit = Tools.SQL_BATCH_LIMIT;
-                    }
+            for (int slot = counter.first(); slot >= 0; slot = counter.next(slot)) {
+                prepStmt.setString(1, activities.get(counter.getDimension(slot)));
+                prepStmt.setLong(2, counter.getHour(slot));
+                prepStmt.setLong(3, counter.getCount(slot));
+                prepStmt.addBatch();
+                prepStmt.clearParameters();
+                batchLimit -= 1;
+
+                if (batchLimit <= 0) {
+                    prepStmt.executeBatch();
+                    prepStmt.clearBatch();
+                    batchLimit = Tools.SQL_BATCH_LIMIT;
                 }
-                prepStmt.executeBatch();
-                prepStmt.clearBatch();
             }
+            prepStmt.executeBatch();
+            prepStmt.clearBatch();
         }
     }
 
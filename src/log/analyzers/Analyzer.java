@@ -2,6 +2,7 @@ package log.analyzers;
 
 import java.io.Closeable;
 import java.sql.SQLException;
+import log.parser.LogRecord;
 
 /**
  *
@@ -13,6 +14,36 @@ public interface Analyzer extends Closeable {
 
     public boolean processLog(String log);
 
+    /**
+     * Same as {@link #processLog(String)}, for a line already split by
+     * {@link log.parser.LogTokenizer}.
+     *
+     * @param record only valid for the duration of the call.
+     * @return true if the analyzer counted the line.
+     */
+    public boolean processRecord(LogRecord record);
+
+    /**
+     * @return the lines this analyzer wants; other lines are never offered
+     * to {@link #processRecord(LogRecord)}.
+     */
+    public Subscription getSubscription();
+
+    /**
+     * @return an empty analyzer of the same configuration, sharing only
+     * read-only state with this one, to count part of a file on another
+     * thread. A partial never touches the database.
+     */
+    public Analyzer newPartial();
+
+    /**
+     * Adds the state of a partial from {@link #newPartial()}, as if its
+     * lines had been offered to this analyzer after the ones it has seen.
+     *
+     * @param partial an analyzer of the same class
+     */
+    public void merge(Analyzer partial);
+
     public void saveToDB() throws SQLException;
 
     public void recalculate(long startTime, long endTime) throws SQLException;
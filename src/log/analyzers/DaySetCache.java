@@ -0,0 +1,160 @@
+package log.analyzers;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import log.util.DistinctTracker;
+import log.util.LongIterator;
+
+/**
+ * Per-run LRU cache of the ids already stored for a day, with the stored
+ * unique count, for {@link UserCount} and {@link LiveViewerCount}.<br>
+ * A day is loaded from the database on its first use and kept across files,
+ * so the lines of two days interleaving around midnight no longer reload a
+ * day on every flip. The cache only holds what has been saved: the analyzer
+ * adds the ids of a file with {@link Day#addSaved} once its saveToDB
+ * succeeded, and drops the cache on a rollback.
+ *
+ * @author sazzad
+ */
+class DaySetCache {
+
+    static final int DEFAULT_CAPACITY = 4;
+
+    interface Loader {
+
+        DistinctTracker loadIds(long day);
+
+        long loadCount(long day);
+    }
+
+    private final Loader loader;
+    private final int capacity;
+    private final LinkedHashMap<Long, Day> days;
+    private final Set<Long> loadedDays = new HashSet<>();
+    private Day last;
+
+    private long hits;
+    private long misses;
+    private long reloads;
+
+    DaySetCache(Loader loader) {
+        this(loader, DEFAULT_CAPACITY);
+    }
+
+    DaySetCache(Loader loader, int capacity) {
+        this.loader = loader;
+        this.capacity = capacity;
+        this.days = new LinkedHashMap<Long, Day>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Day> eldest) {
+                if (size() > DaySetCache.this.capacity) {
+                    if (last == eldest.getValue()) {
+                        last = null;
+                    }
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the day, loading it if it is not cached.
+     */
+    Day get(long day) {
+        if (null != last && last.day == day) {
+            ++hits;
+            return last;
+        }
+        Day cached = days.get(day);
+        if (null == cached) {
+            ++misses;
+            if (!loadedDays.add(day)) {
+                ++reloads;
+            }
+            cached = new Day(day, loader.loadIds(day), loader.loadCount(day));
+            days.put(day, cached);
+        } else {
+            ++hits;
+        }
+        last = cached;
+        return cached;
+    }
+
+    /**
+     * @return the day if it is cached, else null.
+     */
+    Day peek(long day) {
+        return days.get(day);
+    }
+
+    /**
+     * Loads the days not cached yet, e.g. those a file spans.
+     */
+    void preload(Collection<Long> preloadDays) {
+        int count = 0;
+        for (long day : preloadDays) {
+            if (++count > capacity) {
+                break;
+            }
+            get(day);
+        }
+    }
+
+    /**
+     * Forgets every day, e.g. after a rollback; metrics are kept.
+     */
+    void invalidate() {
+        days.clear();
+        last = null;
+    }
+
+    long retainedBytes() {
+        long bytes = 0L;
+        for (Day day : days.values()) {
+            bytes += day.ids.retainedBytes();
+        }
+        return bytes;
+    }
+
+    String getReport() {
+        return "days=" + days.size()
+                + " hits=" + hits
+                + " misses=" + misses
+                + " reloads=" + reloads;
+    }
+
+    static class Day {
+
+        private final long day;
+        private final DistinctTracker ids;
+        private long count;
+
+        Day(long day, DistinctTracker ids, long count) {
+            this.day = day;
+            this.ids = ids;
+            this.count = count;
+        }
+
+        boolean contains(long id) {
+            return ids.contains(id);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        /**
+         * Adds the ids saved for the day and sets its new unique count.
+         */
+        void addSaved(DistinctTracker saved, long newCount) {
+            for (LongIterator it = saved.iterator(); it.hasNext();) {
+                ids.add(it.next());
+            }
+            count = newCount;
+        }
+    }
+}
@@ -2,12 +2,16 @@ package log.analyzers;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.Objects;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import log.parser.LogRecord;
+import log.parser.LogTokenizer;
+import log.parser.RequestIdStripper;
+import log.parser.TemplateMiner;
+import log.util.HourCounter;
+import log.util.KeyIndex;
 import log.util.Tools;
 
 /**
@@ -16,28 +20,94 @@ import log.util.Tools;
  */
 public class ErrorMessageCount implements Analyzer {
 
-    private final Pattern errorPattern = Pattern.compile("^(\\d{17})\\s+(FATAL|ERROR|WARN)\\s+(.*)$");
-    private static final String requestIdPattern = " ?" + Tools.UUID_PATTERN;
+    /**
+     * Direct mapped cache from a raw message to its normalized key, so a
+     * repeated error is not stripped again. Messages longer than
+     * MAX_CACHED_LENGTH are not cached.
+     */
+    private static final int CACHE_SIZE = 1024;
+    private static final int MAX_CACHED_LENGTH = 2048;
 
-    private final HashMap<MessageWithType, HashMap<Long, Long>> countMap
-            = new HashMap<MessageWithType, HashMap<Long, Long>>();
+    private final String[] cachedTypes = new String[CACHE_SIZE];
+    private final char[][] cachedMessages = new char[CACHE_SIZE][];
+    private final MessageWithType[] cachedKeys = new MessageWithType[CACHE_SIZE];
+
+    private final RequestIdStripper stripper = new RequestIdStripper();
+
+    /**
+     * Maps messages to templates, so messages differing only in ids, IPs or
+     * counts share one key; null counts every distinct message. The
+     * templates of earlier runs are loaded from their samples, so a
+     * template keeps its rows from one run to the next.
+     */
+    private final TemplateMiner miner;
+    private final int maxTemplates;
+
+    private final KeyIndex<MessageWithType> messages = new KeyIndex<>();
+    private final HourCounter counter = new HourCounter();
 
     private static final String ERR_MSG_COUNT_SQL
             = "INSERT INTO analytics_error_message_count (type, hashcode, message, time, count) "
             + "VALUES (?, ?, ?, ?, ?) "
             + "ON DUPLICATE KEY UPDATE count = count + VALUES (count)";
 
+    private static final String ERR_MSG_SAMPLE_SQL
+            = "INSERT INTO analytics_error_message_sample (type, hashcode, slot, message, time) "
+            + "VALUES (?, ?, ?, ?, ?) "
+            + "ON DUPLICATE KEY UPDATE message = VALUES (message), time = GREATEST(time, VALUES (time))";
+
+    private static final String SELECT_SAMPLE_SQL
+            = "SELECT hashcode, message FROM analytics_error_message_sample ORDER BY time, hashcode, slot";
+
     private static final String DELETE_ERROR_MESSAGE_COUNT = "DELETE FROM analytics_error_message_count WHERE time >= ? and time < ?";
+    private static final String DELETE_ERROR_MESSAGE_SAMPLE = "DELETE FROM analytics_error_message_sample WHERE time >= ? and time < ?";
 
     private final Connection sqlConnection;
 
-    public ErrorMessageCount(Connection sqlConnection) {
+    public ErrorMessageCount(Connection sqlConnection) throws SQLException {
+        this(sqlConnection, 0);
+    }
+
+    /**
+     * @param sqlConnection
+     * @param maxTemplates the template limit of the miner, or 0 to count
+     * every distinct message.
+     */
+    public ErrorMessageCount(Connection sqlConnection, int maxTemplates) throws SQLException {
         this.sqlConnection = sqlConnection;
+        this.maxTemplates = maxTemplates;
+        this.miner = maxTemplates > 0 ? new TemplateMiner(maxTemplates) : null;
+        if (null != miner) {
+            loadTemplates();
+        }
+    }
+
+    /**
+     * Starts with no templates; a partial does not read the samples.
+     */
+    private ErrorMessageCount(ErrorMessageCount parent) {
+        this.sqlConnection = parent.sqlConnection;
+        this.maxTemplates = parent.maxTemplates;
+        this.miner = maxTemplates > 0 ? new TemplateMiner(maxTemplates) : null;
+    }
+
+    /**
+     * Rebuilds the templates from their saved samples, oldest first, each
+     * keeping the hashcode its rows were saved with.
+     */
+    private void loadTemplates() throws SQLException {
+        try (PreparedStatement prepStmt = sqlConnection.prepareStatement(SELECT_SAMPLE_SQL)) {
+            ResultSet rs = prepStmt.executeQuery();
+            while (rs.next()) {
+                miner.load(rs.getString("message"), rs.getInt("hashcode"));
+            }
+        }
     }
 
     @Override
     public void clear() {
-        this.countMap.clear();
+        this.counter.clear();
+        this.messages.clear();
     }
 
     @Override
@@ -46,55 +116,159 @@ public class ErrorMessageCount implements Analyzer {
     }
 
     @Override
-    public boolean processLog(String log) {
-        Matcher m = errorPattern.matcher(log);
-        if (m.matches()) {
-            Long time = Long.parseLong(m.group(1).substring(0, 10));
-            String type = m.group(2);
-            String text = m.group(3);
-            text = text.replaceAll(requestIdPattern, "");
-            MessageWithType message = new MessageWithType(type, text);
-
-            HashMap<Long, Long> hm;
-            if (countMap.containsKey(message)) {
-                hm = countMap.get(message);
-            } else {
-                hm = new HashMap<Long, Long>();
-                countMap.put(message, hm);
-            }
+    public Subscription getSubscription() {
+        return Subscription.allLines(LogRecord.FATAL, LogRecord.ERROR, LogRecord.WARN);
+    }
 
-            if (hm.containsKey(time)) {
-                hm.put(time, hm.get(time) + 1L);
-            } else {
-                hm.put(time, 1L);
+    @Override
+    public Analyzer newPartial() {
+        return new ErrorMessageCount(this);
+    }
+
+    /**
+     * A partial mines its own templates; each is merged into the miner of
+     * this analyzer by its tokens, see {@link TemplateMiner#merge}.
+     */
+    @Override
+    public void merge(Analyzer partial) {
+        ErrorMessageCount other = (ErrorMessageCount) partial;
+        int[] ids = new int[other.messages.size()];
+        for (int id = 0; id < ids.length; ++id) {
+            MessageWithType message = other.messages.get(id);
+            if (null != message.template) {
+                message = new MessageWithType(message.getType(), miner.merge(message.template));
             }
+            ids[id] = messages.idOf(message);
+        }
+        HourCounter counts = other.counter;
+        for (int slot = counts.first(); slot >= 0; slot = counts.next(slot)) {
+            counter.add(ids[counts.getDimension(slot)], counts.getHour(slot), counts.getCount(slot));
+        }
+    }
+
+    @Override
+    public boolean processLog(String log) {
+        LogRecord record = LogTokenizer.parse(log);
+        return null != record && processRecord(record);
+    }
+
+    @Override
+    public boolean processRecord(LogRecord record) {
+        String type = record.getLevel();
+        if (LogRecord.FATAL == type || LogRecord.ERROR == type || LogRecord.WARN == type) {
+            MessageWithType message = toMessage(type, record.getLine(), record.getMessageStart());
+            counter.increment(messages.idOf(message), record.getHour());
             return true;
         }
         return false;
     }
 
+    private MessageWithType toMessage(String type, CharSequence line, int start) {
+        int end = line.length();
+        if (end - start > MAX_CACHED_LENGTH) {
+            return newMessage(type, stripper.strip(line, start, end));
+        }
+
+        int hash = type.hashCode();
+        for (int i = start; i < end; ++i) {
+            hash = 31 * hash + line.charAt(i);
+        }
+        int slot = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+        if (type == cachedTypes[slot] && regionEquals(cachedMessages[slot], line, start, end)) {
+            MessageWithType cached = cachedKeys[slot];
+            if (null == cached.template || miner.touch(cached.template)) {
+                return cached;
+            }
+        }
+
+        MessageWithType message = newMessage(type, stripper.strip(line, start, end));
+        char[] raw = new char[end - start];
+        for (int i = start; i < end; ++i) {
+            raw[i - start] = line.charAt(i);
+        }
+        cachedTypes[slot] = type;
+        cachedMessages[slot] = raw;
+        cachedKeys[slot] = message;
+        return message;
+    }
+
+    private MessageWithType newMessage(String type, String text) {
+        if (null == miner) {
+            return new MessageWithType(type, text);
+        }
+        return new MessageWithType(type, miner.match(text));
+    }
+
+    private static boolean regionEquals(char[] raw, CharSequence line, int start, int end) {
+        if (null == raw || raw.length != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; ++i) {
+            if (raw[i - start] != line.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public void saveToDB() throws SQLException {
 
         try (PreparedStatement prepStmt = sqlConnection.prepareStatement(ERR_MSG_COUNT_SQL)) {
             int batchLimit = Tools.SQL_BATCH_LIMIT;
-            for (Map.Entry<MessageWithType, HashMap<Long, Long>> parentEntry : countMap.entrySet()) {
-                MessageWithType message = parentEntry.getKey();
+            for (int slot = counter.first(); slot >= 0; slot = counter.next(slot)) {
+                MessageWithType message = messages.get(counter.getDimension(slot));
+
+                String type = message.getType();
+                prepStmt.setString(1, type);
+
+                prepStmt.setInt(2, message.getKey());
+                prepStmt.setString(3, message.getMessage());
+
+                prepStmt.setLong(4, counter.getHour(slot));
+                prepStmt.setLong(5, counter.getCount(slot));
+
+                prepStmt.addBatch();
+                prepStmt.clearParameters();
+                batchLimit -= 1;
+
+                if (batchLimit <= 0) {
+                    prepStmt.executeBatch();
+                    prepStmt.clearBatch();
+
+                    batchLimit = Tools.SQL_BATCH_LIMIT;
+                }
+            }
 
-                for (Map.Entry<Long, Long> childEntry : parentEntry.getValue().entrySet()) {
-                    Long time = childEntry.getKey();
-                    Long count = childEntry.getValue();
+            prepStmt.executeBatch();
+            prepStmt.clearBatch();
+        }
 
-                    String type = message.getType();
-                    prepStmt.setString(1, type);
+        if (null != miner) {
+            insertSamples();
+        }
+    }
 
-                    String text = message.getMessage();
-                    int hashcode = text.hashCode();
-                    prepStmt.setInt(2, hashcode);
-                    prepStmt.setString(3, text);
+    private void insertSamples() throws SQLException {
+        try (PreparedStatement prepStmt = sqlConnection.prepareStatement(ERR_MSG_SAMPLE_SQL)) {
+            long[] lastHours = new long[messages.size()];
+            for (int slot = counter.first(); slot >= 0; slot = counter.next(slot)) {
+                int id = counter.getDimension(slot);
+                lastHours[id] = Math.max(lastHours[id], counter.getHour(slot));
+            }
 
-                    prepStmt.setLong(4, time);
-                    prepStmt.setLong(5, count);
+            int batchLimit = Tools.SQL_BATCH_LIMIT;
+            for (int id = 0; id < messages.size(); ++id) {
+                MessageWithType message = messages.get(id);
+                long time = lastHours[id];
+
+                List<String> samples = message.template.getSamples();
+                for (int slot = 0; slot < samples.size(); ++slot) {
+                    prepStmt.setString(1, message.getType());
+                    prepStmt.setInt(2, message.getKey());
+                    prepStmt.setInt(3, slot);
+                    prepStmt.setString(4, samples.get(slot));
+                    prepStmt.setLong(5, time);
 
                     prepStmt.addBatch();
                     prepStmt.clearParameters();
@@ -103,14 +277,12 @@ public class ErrorMessageCount implements Analyzer {
                     if (batchLimit <= 0) {
                         prepStmt.executeBatch();
                         prepStmt.clearBatch();
-
                         batchLimit = Tools.SQL_BATCH_LIMIT;
                     }
                 }
-
-                prepStmt.executeBatch();
-                prepStmt.clearBatch();
             }
+            prepStmt.executeBatch();
+            prepStmt.clearBatch();
         }
     }
 
@@ -126,29 +298,54 @@ public class ErrorMessageCount implements Analyzer {
             deleStmt.setLong(2, endTime);
             deleStmt.execute();
         }
+        try (PreparedStatement deleStmt = sqlConnection.prepareCall(DELETE_ERROR_MESSAGE_SAMPLE)) {
+            deleStmt.setLong(1, startTime);
+            deleStmt.setLong(2, endTime);
+            deleStmt.execute();
+        }
     }
 
     private class MessageWithType extends Object {
 
         private final String type;
         private final String message;
+        private final TemplateMiner.Template template;
 
         public MessageWithType(String type, String message) {
             this.type = type;
             this.message = message;
+            this.template = null;
+        }
+
+        public MessageWithType(String type, TemplateMiner.Template template) {
+            this.type = type;
+            this.message = null;
+            this.template = template;
         }
 
         public String getType() {
             return type;
         }
 
+        /**
+         * @return the hashcode the rows of the message are saved with,
+         * which stays the same as its template generalizes.
+         */
+        public int getKey() {
+            return null != template ? template.getKey() : message.hashCode();
+        }
+
+        /**
+         * @return the message, or the current text of the template; a
+         * template may still generalize until it is saved.
+         */
         public String getMessage() {
-            return message;
+            return null != template ? template.getText() : message;
         }
 
         @Override
         public int hashCode() {
-            return this.message.hashCode();
+            return null != template ? template.getId() : this.message.hashCode();
         }
 
         @Override
@@ -167,7 +364,7 @@ public class ErrorMessageCount implements Analyzer {
             if (!Objects.equals(this.type, other.type)) {
                 return false;
             }
-            return Objects.equals(this.message, other.message);
+            return this.template == other.template && Objects.equals(this.message, other.message);
         }
     }
 }
@@ -0,0 +1,30 @@
+package log.analyzers;
+
+import java.util.Collection;
+
+/**
+ * Optional hooks of an {@link Analyzer} around the processing of one file.
+ *
+ * @author sazzad
+ */
+public interface FileListener {
+
+    /**
+     * Called after {@link Analyzer#clear()} and before the first line.
+     *
+     * @param days the days (yyyyMMdd) the file spans, found by a pre-scan;
+     * may be empty.
+     */
+    void fileStarted(Collection<Long> days);
+
+    /**
+     * Called after {@link Analyzer#saveToDB()} succeeded, so the saved rows
+     * are visible to the connection.
+     */
+    void fileSaved();
+
+    /**
+     * Called when the transaction of the file was rolled back.
+     */
+    void fileRolledBack();
+}
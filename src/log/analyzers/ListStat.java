@@ -5,6 +5,8 @@ import java.util.Map;
 import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import log.parser.LogRecord;
+import log.parser.LogTokenizer;
 
 /**
  *
@@ -12,7 +14,7 @@ import java.util.regex.Pattern;
  */
 public class ListStat implements Analyzer {
 
-    private final Pattern pattern = Pattern.compile("^\\d{17}\\s+INFO - R \\S+ (\\w+) - \\{.*\"(\\w+)\":\\[(.*)].*}$");
+    private final Pattern pattern = Pattern.compile("^\\{.*\"(\\w+)\":\\[(.*)].*}$");
 
     private final TreeMap<String, LinkedHashMap<String, Long>> usage = new TreeMap<String, LinkedHashMap<String, Long>>();
 
@@ -39,15 +41,51 @@ public class ListStat implements Analyzer {
         clear();
     }
 
+    @Override
+    public Subscription getSubscription() {
+        return Subscription.allRequests();
+    }
+
+    @Override
+    public Analyzer newPartial() {
+        return new ListStat();
+    }
+
+    @Override
+    public void merge(Analyzer partial) {
+        for (Map.Entry<String, LinkedHashMap<String, Long>> entry : ((ListStat) partial).usage.entrySet()) {
+            LinkedHashMap<String, Long> map = usage.get(entry.getKey());
+            if (null == map) {
+                usage.put(entry.getKey(), new LinkedHashMap<>(entry.getValue()));
+                continue;
+            }
+            for (Map.Entry<String, Long> stat : entry.getValue().entrySet()) {
+                String key = stat.getKey();
+                long value = stat.getValue();
+                map.put(key, MAX.equals(key) ? Math.max(map.get(key), value) : map.get(key) + value);
+            }
+        }
+    }
+
     @Override
     public boolean processLog(String log) {
-        Matcher m = pattern.matcher(log);
+        LogRecord record = LogTokenizer.parse(log);
+        return null != record && processRecord(record);
+    }
+
+    @Override
+    public boolean processRecord(LogRecord record) {
+        if (!record.isRequest() || !record.hasParams()) {
+            return false;
+        }
+
+        Matcher m = pattern.matcher(record.getParams());
         if (m.matches()) {
-            String method = m.group(1);
-            String key = m.group(2);
+            String method = record.getMethod();
+            String key = m.group(1);
             String fullkey = method + " (" + key + ")";
 
-            String listStr = m.group(3).trim();
+            String listStr = m.group(2).trim();
             int count = 0;
             if (!listStr.isEmpty()) {
                 count = listStr.split(",").length;
@@ -0,0 +1,204 @@
+package log.analyzers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Growable column store for live stream rows of a {@link LiveStreamSchema}.
+ * <br>
+ * LONG and DOUBLE columns are primitive arrays, TEXT columns hold ids into a
+ * string table shared by all text columns, and one presence bitmask per row
+ * tells which columns the log line carried.
+ *
+ * @author sazzad
+ */
+public class LiveStreamBuffer {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final LiveStreamSchema schema;
+
+    private final long[][] longColumns;
+    private final double[][] doubleColumns;
+    private final int[][] textColumns;
+    private long[] presence;
+
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIds = new HashMap<>();
+
+    private int capacity;
+    private int size;
+
+    public LiveStreamBuffer(LiveStreamSchema schema) {
+        this.schema = schema;
+        int columns = schema.size();
+        longColumns = new long[columns][];
+        doubleColumns = new double[columns][];
+        textColumns = new int[columns][];
+        allocate(INITIAL_CAPACITY);
+    }
+
+    public LiveStreamSchema getSchema() {
+        return schema;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+        strings.clear();
+        stringIds.clear();
+    }
+
+    /**
+     * @return the index of a new, empty row.
+     */
+    public int addRow() {
+        if (size == capacity) {
+            allocate(capacity * 2);
+        }
+        presence[size] = 0L;
+        return size++;
+    }
+
+    /**
+     * Drops the last row, e.g. after a decoding error.
+     */
+    public void removeLastRow() {
+        if (size > 0) {
+            --size;
+        }
+    }
+
+    /**
+     * Folds the last row into <code>target</code> and drops it. Columns the
+     * target does not have are always taken; columns both rows have are taken
+     * only when <code>overwrite</code> is set.
+     */
+    public void mergeLastRow(int target, boolean overwrite) {
+        int source = size - 1;
+        long columns = overwrite ? presence[source] : presence[source] & ~presence[target];
+        for (long bits = columns; bits != 0L; bits &= bits - 1L) {
+            int column = Long.numberOfTrailingZeros(bits);
+            switch (schema.get(column).getType()) {
+            case LONG:
+                longColumns[column][target] = longColumns[column][source];
+                break;
+            case DOUBLE:
+                doubleColumns[column][target] = doubleColumns[column][source];
+                break;
+            default:
+                textColumns[column][target] = textColumns[column][source];
+            }
+        }
+        presence[target] |= columns;
+        removeLastRow();
+    }
+
+    /**
+     * Appends a copy of a row of another buffer of the same schema.
+     *
+     * @return the index of the new row.
+     */
+    public int copyRow(LiveStreamBuffer source, int sourceRow) {
+        int row = addRow();
+        for (long bits = source.presence[sourceRow]; bits != 0L; bits &= bits - 1L) {
+            int column = Long.numberOfTrailingZeros(bits);
+            switch (schema.get(column).getType()) {
+            case LONG:
+                setLong(row, column, source.getLong(sourceRow, column));
+                break;
+            case DOUBLE:
+                setDouble(row, column, source.getDouble(sourceRow, column));
+                break;
+            default:
+                setText(row, column, source.getText(sourceRow, column));
+            }
+        }
+        return row;
+    }
+
+    public long getPresence(int row) {
+        return presence[row];
+    }
+
+    public boolean isPresent(int row, int column) {
+        return (presence[row] & (1L << column)) != 0L;
+    }
+
+    public void setLong(int row, int column, long value) {
+        longColumns[column][row] = value;
+        presence[row] |= 1L << column;
+    }
+
+    public void setDouble(int row, int column, double value) {
+        doubleColumns[column][row] = value;
+        presence[row] |= 1L << column;
+    }
+
+    public void setText(int row, int column, String value) {
+        Integer id = stringIds.get(value);
+        if (null == id) {
+            id = strings.size();
+            strings.add(value);
+            stringIds.put(value, id);
+        }
+        textColumns[column][row] = id;
+        presence[row] |= 1L << column;
+    }
+
+    public long getLong(int row, int column) {
+        return longColumns[column][row];
+    }
+
+    public double getDouble(int row, int column) {
+        return doubleColumns[column][row];
+    }
+
+    public String getText(int row, int column) {
+        return strings.get(textColumns[column][row]);
+    }
+
+    /**
+     * @return the value of a present column as a boxed object, or null.
+     */
+    public Object getValue(int row, int column) {
+        if (!isPresent(row, column)) {
+            return null;
+        }
+        switch (schema.get(column).getType()) {
+        case LONG:
+            return getLong(row, column);
+        case DOUBLE:
+            return getDouble(row, column);
+        default:
+            return getText(row, column);
+        }
+    }
+
+    private void allocate(int newCapacity) {
+        for (LiveStreamSchema.Column column : schema.getColumns()) {
+            int index = column.getIndex();
+            switch (column.getType()) {
+            case LONG:
+                longColumns[index] = null == longColumns[index]
+                        ? new long[newCapacity] : Arrays.copyOf(longColumns[index], newCapacity);
+                break;
+            case DOUBLE:
+                doubleColumns[index] = null == doubleColumns[index]
+                        ? new double[newCapacity] : Arrays.copyOf(doubleColumns[index], newCapacity);
+                break;
+            default:
+                textColumns[index] = null == textColumns[index]
+                        ? new int[newCapacity] : Arrays.copyOf(textColumns[index], newCapacity);
+            }
+        }
+        presence = null == presence ? new long[newCapacity] : Arrays.copyOf(presence, newCapacity);
+        capacity = newCapacity;
+    }
+}
@@ -5,71 +5,196 @@
  */
 package log.analyzers;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
 import java.io.IOException;
-import java.lang.reflect.Type;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
+import java.util.HashSet;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import log.parser.JsonCursor;
+import log.parser.LogRecord;
+import log.parser.LogTokenizer;
 import log.util.Tools;
 import org.apache.log4j.Logger;
 
-import static java.lang.String.format;
-
 public class LiveStreamHistory implements Analyzer {
 
     private static final Logger logger = Logger.getLogger(LiveStreamHistory.class);
 
-    public static final SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMddHHmmssSSS");
-    private static final Gson gson = new GsonBuilder().create();
-    private final Type mapType = new TypeToken<Map<String, Object>>() {}.getType();
-    private final Pattern lshPattern = Pattern.compile("^(\\d{17})\\s+INFO - LiveStreamHistory->(.*)$");
+    /**
+     * Per instance, SimpleDateFormat is not thread safe.
+     */
+    private final SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMddHHmmssSSS");
+    private static final String LSH_PREFIX = "- LiveStreamHistory->";
     private static final String ZERO_TIMESTAMP = "00000000000000000";
-    private final List<Map<String, Object>> dtoValueStore = new ArrayList<>();
-    private static final String QUERY_TEMPLATE = "INSERT INTO analytics_live_stream (%s) VALUES (%s) ON DUPLICATE KEY UPDATE %s;";
+    private final LiveStreamSchema schema = LiveStreamSchema.LIVE_STREAM;
+    private final LiveStreamBuffer rows = new LiveStreamBuffer(schema);
+    private final int logtimeColumn = schema.indexOf(LiveStreamSchema.LOGTIME_KEY);
+    private final int streamIdColumn = schema.indexOf(LiveStreamSchema.STREAM_ID_KEY);
+    private final JsonCursor cursor = new JsonCursor();
+    private LiveStreamWriter writer;
+
+    /**
+     * Row of each coalesced stream in the current buffer.
+     */
+    private final Map<String, Integer> streamRows = new HashMap<>();
+    private final Set<String> historyStreams = new HashSet<>();
+    private final String historyStreamsConfig;
+    private boolean keepAllHistory;
+    private long lineCount;
 
     private final String DELETE_LIVE_STREAM = "DELETE FROM analytics_live_stream  WHERE logtime >= ? and logtime < ? ";
     private final Connection sqlConnection;
 
     public LiveStreamHistory(Connection sqlConnection) {
+        this(sqlConnection, null);
+    }
+
+    /**
+     * @param sqlConnection
+     * @param historyStreams comma separated stream ids to keep every line of,
+     * <code>*</code> for all, or null to coalesce every stream.
+     */
+    public LiveStreamHistory(Connection sqlConnection, String historyStreams) {
         this.sqlConnection = sqlConnection;
+        this.historyStreamsConfig = historyStreams;
+        if (null != historyStreams) {
+            for (String streamId : historyStreams.split(Tools.FEATURE_SEPARTOR)) {
+                streamId = streamId.trim();
+                if (Tools.ALL_STREAMS.equals(streamId)) {
+                    keepAllHistory = true;
+                } else if (!streamId.isEmpty()) {
+                    this.historyStreams.add(streamId);
+                }
+            }
+        }
     }
 
     @Override
     public void clear() {
-        dtoValueStore.clear();
+        rows.clear();
+        streamRows.clear();
+        lineCount = 0L;
+    }
+
+    @Override
+    public Subscription getSubscription() {
+        return Subscription.nonRequests(LogRecord.INFO);
+    }
+
+    @Override
+    public Analyzer newPartial() {
+        return new LiveStreamHistory(sqlConnection, historyStreamsConfig);
+    }
+
+    /**
+     * Appends the rows of the partial and coalesces each of them as a new
+     * line would be.
+     */
+    @Override
+    public void merge(Analyzer partial) {
+        LiveStreamHistory other = (LiveStreamHistory) partial;
+        for (int row = 0; row < other.rows.size(); ++row) {
+            coalesce(rows.copyRow(other.rows, row));
+        }
+        lineCount += other.lineCount;
     }
 
     @Override
     public boolean processLog(String log) {
-        return processLiveStreamHistory(log);
+        LogRecord record = LogTokenizer.parse(log);
+        return null != record && processRecord(record);
     }
 
-    private boolean processLiveStreamHistory(String log) {
-        Matcher m = lshPattern.matcher(log);
-        if (m.matches()) {
-            String timestamp = m.group(1);
-            String methodParams = m.group(2);
-            Map<String, Object> dtoValue = gson.fromJson(methodParams, mapType);
-            dtoValue.put("logtime", toTimeStamp(timestamp));
-            dtoValueStore.add(dtoValue);
+    @Override
+    public boolean processRecord(LogRecord record) {
+        return processLiveStreamHistory(record);
+    }
+
+    private boolean processLiveStreamHistory(LogRecord record) {
+        if (record.isLevel(LogRecord.INFO) && record.messageStartsWith(LSH_PREFIX)) {
+            String timestamp = record.getTimestampString();
+            CharSequence message = record.getMessage();
+            int row = rows.addRow();
+            try {
+                decodeRow(message, LSH_PREFIX.length(), row);
+            } catch (RuntimeException ex) {
+                rows.removeLastRow();
+                throw ex;
+            }
+            rows.setLong(row, logtimeColumn, toTimeStamp(timestamp));
+            ++lineCount;
+            coalesce(row);
             return true;
         }
         return false;
     }
 
+    /**
+     * Folds a new row into the earlier row of the same stream, field by field.
+     * Fields of the line with the later logtime win; on equal logtime the
+     * later line wins.
+     */
+    private void coalesce(int row) {
+        if (keepAllHistory || !rows.isPresent(row, streamIdColumn)) {
+            return;
+        }
+        String streamId = rows.getText(row, streamIdColumn);
+        if (historyStreams.contains(streamId)) {
+            return;
+        }
+        Integer target = streamRows.get(streamId);
+        if (null == target) {
+            streamRows.put(streamId, row);
+        } else {
+            boolean newer = rows.getLong(row, logtimeColumn) >= rows.getLong(target, logtimeColumn);
+            rows.mergeLastRow(target, newer);
+        }
+    }
+
+    /**
+     * Fills a row straight from the JSON object, column by column. Null
+     * values and unknown keys are skipped.
+     */
+    private void decodeRow(CharSequence text, int start, int row) {
+        cursor.reset(text, start, text.length());
+        cursor.beginObject();
+        while (cursor.nextKey()) {
+            int column = schema.indexOf(text, cursor.getKeyStart(), cursor.getKeyEnd());
+            if (column < 0) {
+                cursor.skipValue();
+                continue;
+            }
+            if (cursor.nextNull()) {
+                continue;
+            }
+
+            int c = cursor.peek();
+            switch (schema.get(column).getType()) {
+            case LONG:
+                if (c == 't' || c == 'f') {
+                    rows.setLong(row, column, cursor.nextBoolean() ? 1L : 0L);
+                } else {
+                    rows.setLong(row, column, cursor.nextLong());
+                }
+                break;
+            case DOUBLE:
+                rows.setDouble(row, column, cursor.nextDouble());
+                break;
+            default:
+                if (c == '{' || c == '[') {
+                    rows.setText(row, column, cursor.nextRaw().toString());
+                } else {
+                    rows.setText(row, column, cursor.nextString());
+                }
+            }
+        }
+    }
+
     private long toTimeStamp(long prefix) {
         return toTimeStamp(String.valueOf(prefix));
     }
@@ -91,66 +216,11 @@ public class LiveStreamHistory implements Analyzer {
     }
 
     private void insertLiveStream() throws SQLException {
-        try (Statement stmt = sqlConnection.createStatement()) {
-            int batchLimit = Tools.SQL_BATCH_LIMIT;
-            for (Map<String, Object> dtoValue : dtoValueStore) {
-                String query = buildQuery(dtoValue);
-                stmt.addBatch(query);
-                batchLimit -= 1;
-                if (batchLimit <= 0) {
-                    stmt.executeBatch();
-                    stmt.clearBatch();
-                    batchLimit = Tools.SQL_BATCH_LIMIT;
-                }
-            }
-            stmt.executeBatch();
-            stmt.clearBatch();
-        }
-    }
-
-    private String buildQuery(Map<String, Object> dtoValue) {
-        StringBuilder aggColumn = new StringBuilder();
-        StringBuilder aggValue = new StringBuilder();
-        StringBuilder aggUpdate = new StringBuilder();
-        boolean first = true;
-        String updateFormat = "%s=VALUES(%s)";
-
-        for (Map.Entry<String, String> entry : Constant.KEY_COL_NAME.entrySet()) {
-            String logKey = entry.getKey();
-            String column = entry.getValue();
-            Object logValue = dtoValue.get(logKey);
-
-            if (logValue != null) {
-                if (first) {
-                    first = false;
-                }
-                else {
-                    aggColumn.append(",");
-                    aggValue.append(",");
-                    aggUpdate.append(",");
-                }
-
-                aggColumn.append(column);
-                aggUpdate.append(format(updateFormat, column, column));
-
-                if (Constant.STR_TYPE_COL.contains(column)) {
-                    String value = logValue.toString().replace("\"", "\\\"");
-                    aggValue.append("\"");
-                    aggValue.append(value);
-                    aggValue.append("\"");
-                }
-                else {
-                    aggValue.append(logValue);
-                }
-            }
-        }
-
-        if (aggValue.length() <= 0 || aggColumn.length() <= 0) {
-            return null;
+        if (null == writer) {
+            writer = new LiveStreamWriter(sqlConnection, schema);
         }
-
-        String query = String.format(QUERY_TEMPLATE, aggColumn, aggValue, aggUpdate);
-        return query;
+        logger.info("LIVE STREAM COALESCE: lines=" + lineCount + " rows=" + rows.size() + ".");
+        writer.write(rows);
     }
 
     @Override
@@ -173,49 +243,9 @@ public class LiveStreamHistory implements Analyzer {
     @Override
     public void close() throws IOException {
         clear();
-    }
-
-    private static class Constant {
-
-        private static final List<String> STR_TYPE_COL = Arrays.asList("country", "chatserverip",
-                "streamserverip", "tags", "viewerserverip", "profileimage", "title", "streamid", "name");
-
-        private static final Map<String, String> KEY_COL_NAME = new HashMap<>();
-
-        static {
-            KEY_COL_NAME.put("cnty", "country");
-            KEY_COL_NAME.put("chatport", "chatport");
-            KEY_COL_NAME.put("chatServerIp", "chatserverip");
-            KEY_COL_NAME.put("streamIp", "streamserverip");
-            KEY_COL_NAME.put("streamPort", "streamport");
-            KEY_COL_NAME.put("catList", "tags");
-            KEY_COL_NAME.put("isVrfid", "userstatus");
-            KEY_COL_NAME.put("vwrIp", "viewerserverip");
-            KEY_COL_NAME.put("vwrPort", "viewerserverport");
-            KEY_COL_NAME.put("dvcc", "devicecategory");
-            KEY_COL_NAME.put("endTm", "endtime");
-            KEY_COL_NAME.put("giftOn", "gifton");
-            KEY_COL_NAME.put("type", "isfeatured");
-            KEY_COL_NAME.put("lat", "latitude");
-            KEY_COL_NAME.put("lc", "likecount");
-            KEY_COL_NAME.put("lon", "longitude");
-            KEY_COL_NAME.put("fn", "name");
-            KEY_COL_NAME.put("prIm", "profileimage");
-            KEY_COL_NAME.put("uId", "ringid");
-            KEY_COL_NAME.put("stTm", "starttime");
-            KEY_COL_NAME.put("ttl", "title");
-            KEY_COL_NAME.put("utId", "userid");
-            KEY_COL_NAME.put("streamId", "streamid");
-            KEY_COL_NAME.put("vwc", "viewcount");
-            KEY_COL_NAME.put("coin", "startcoin");
-            KEY_COL_NAME.put("endCoin", "endcoin");
-            KEY_COL_NAME.put("utTyp", "userType");
-            KEY_COL_NAME.put("rmid", "roomid");
-            KEY_COL_NAME.put("device", "device");
-            KEY_COL_NAME.put("tariff", "tariff");
-            KEY_COL_NAME.put("ftrdScr", "featuredScore");
-            KEY_COL_NAME.put("mType", "streamMediaType");
-            KEY_COL_NAME.put("logtime", "logtime");
+        if (null != writer) {
+            writer.close();
+            writer = null;
         }
     }
 }
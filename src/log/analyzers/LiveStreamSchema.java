@@ -0,0 +1,175 @@
+package log.analyzers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The columns of analytics_live_stream filled from LiveStreamHistory logs:
+ * the log key, the column name, its position in the row buffer and how its
+ * value is stored.<br>
+ * Keys are looked up straight from a span of the log line, through a small
+ * open addressing table on {@link String#hashCode()}, so decoding a row does
+ * not allocate a String per key.
+ *
+ * @author sazzad
+ */
+public class LiveStreamSchema {
+
+    public enum Type {
+        TEXT, LONG, DOUBLE
+    }
+
+    public static final String LOGTIME_KEY = "logtime";
+    public static final String STREAM_ID_KEY = "streamId";
+
+    public static final LiveStreamSchema LIVE_STREAM = new LiveStreamSchema()
+            .add("cnty", "country", Type.TEXT)
+            .add("chatport", "chatport", Type.LONG)
+            .add("chatServerIp", "chatserverip", Type.TEXT)
+            .add("streamIp", "streamserverip", Type.TEXT)
+            .add("streamPort", "streamport", Type.LONG)
+            .add("catList", "tags", Type.TEXT)
+            .add("isVrfid", "userstatus", Type.LONG)
+            .add("vwrIp", "viewerserverip", Type.TEXT)
+            .add("vwrPort", "viewerserverport", Type.LONG)
+            .add("dvcc", "devicecategory", Type.LONG)
+            .add("endTm", "endtime", Type.LONG)
+            .add("giftOn", "gifton", Type.LONG)
+            .add("type", "isfeatured", Type.LONG)
+            .add("lat", "latitude", Type.DOUBLE)
+            .add("lc", "likecount", Type.LONG)
+            .add("lon", "longitude", Type.DOUBLE)
+            .add("fn", "name", Type.TEXT)
+            .add("prIm", "profileimage", Type.TEXT)
+            .add("uId", "ringid", Type.LONG)
+            .add("stTm", "starttime", Type.LONG)
+            .add("ttl", "title", Type.TEXT)
+            .add("utId", "userid", Type.LONG)
+            .add(STREAM_ID_KEY, "streamid", Type.TEXT)
+            .add("vwc", "viewcount", Type.LONG)
+            .add("coin", "startcoin", Type.LONG)
+            .add("endCoin", "endcoin", Type.LONG)
+            .add("utTyp", "userType", Type.LONG)
+            .add("rmid", "roomid", Type.LONG)
+            .add("device", "device", Type.LONG)
+            .add("tariff", "tariff", Type.LONG)
+            .add("ftrdScr", "featuredScore", Type.DOUBLE)
+            .add("mType", "streamMediaType", Type.LONG)
+            .add(LOGTIME_KEY, "logtime", Type.LONG);
+
+    /**
+     * Row presence is kept in one long per row.
+     */
+    public static final int MAX_COLUMNS = 64;
+
+    private final List<Column> columns = new ArrayList<>();
+    private int[] slots = new int[0];
+
+    private LiveStreamSchema add(String logKey, String name, Type type) {
+        if (columns.size() >= MAX_COLUMNS) {
+            throw new IllegalStateException("A live stream row can not have more than " + MAX_COLUMNS + " columns.");
+        }
+        columns.add(new Column(logKey, name, type, columns.size()));
+        rebuildSlots();
+        return this;
+    }
+
+    public int size() {
+        return columns.size();
+    }
+
+    public Column get(int index) {
+        return columns.get(index);
+    }
+
+    public List<Column> getColumns() {
+        return Collections.unmodifiableList(columns);
+    }
+
+    public int indexOf(String logKey) {
+        return indexOf(logKey, 0, logKey.length());
+    }
+
+    /**
+     * @return the column index of the log key text[start, end), or -1.
+     */
+    public int indexOf(CharSequence text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; ++i) {
+            hash = 31 * hash + text.charAt(i);
+        }
+
+        int mask = slots.length - 1;
+        for (int slot = mix(hash) & mask;; slot = (slot + 1) & mask) {
+            int index = slots[slot] - 1;
+            if (index < 0) {
+                return -1;
+            }
+            String key = columns.get(index).logKey;
+            if (key.hashCode() == hash && equals(key, text, start, end)) {
+                return index;
+            }
+        }
+    }
+
+    private void rebuildSlots() {
+        int capacity = Integer.highestOneBit(columns.size() * 4 - 1) << 1;
+        slots = new int[capacity];
+        int mask = capacity - 1;
+        for (Column column : columns) {
+            int slot = mix(column.logKey.hashCode()) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = column.index + 1;
+        }
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(String key, CharSequence text, int start, int end) {
+        if (key.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); ++i) {
+            if (key.charAt(i) != text.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static class Column {
+
+        private final String logKey;
+        private final String name;
+        private final Type type;
+        private final int index;
+
+        Column(String logKey, String name, Type type, int index) {
+            this.logKey = logKey;
+            this.name = name;
+            this.type = type;
+            this.index = index;
+        }
+
+        public String getLogKey() {
+            return logKey;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+    }
+}
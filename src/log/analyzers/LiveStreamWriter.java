@@ -0,0 +1,175 @@
+package log.analyzers;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.log4j.Logger;
+
+/**
+ * Writes the rows of a {@link LiveStreamBuffer} with multi-row upserts.<br>
+ * Rows are grouped by their presence bitmask, so all rows of a group have
+ * the same column list and share one statement text:
+ * <code>INSERT ... VALUES (?,..),(?,..) ON DUPLICATE KEY UPDATE ...</code>.
+ * Prepared statements are cached per (bitmask, row count) for the lifetime
+ * of the writer, so the statement text of each shape is built once. The
+ * driver prepares on the client (no useServerPrepStmts), so the server still
+ * parses every execution.
+ *
+ * @author sazzad
+ */
+class LiveStreamWriter implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(LiveStreamWriter.class);
+
+    static final int ROWS_PER_STATEMENT = 100;
+
+    private static final String TABLE = "analytics_live_stream";
+
+    private final Connection sqlConnection;
+    private final LiveStreamSchema schema;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+    LiveStreamWriter(Connection sqlConnection, LiveStreamSchema schema) {
+        this.sqlConnection = sqlConnection;
+        this.schema = schema;
+    }
+
+    void write(LiveStreamBuffer rows) throws SQLException {
+        long startTime = System.nanoTime();
+        Map<Long, List<Integer>> groups = new LinkedHashMap<>();
+        for (int row = 0; row < rows.size(); ++row) {
+            long mask = rows.getPresence(row);
+            if (mask == 0L) {
+                continue;
+            }
+            List<Integer> group = groups.get(mask);
+            if (null == group) {
+                group = new ArrayList<>();
+                groups.put(mask, group);
+            }
+            group.add(row);
+        }
+
+        long statementCount = 0L, rowCount = 0L;
+        for (Map.Entry<Long, List<Integer>> entry : groups.entrySet()) {
+            long mask = entry.getKey();
+            List<Integer> group = entry.getValue();
+            int[] columns = columnsOf(mask);
+
+            int full = group.size() / ROWS_PER_STATEMENT;
+            if (full > 0) {
+                PreparedStatement prepStmt = getStatement(mask, columns, ROWS_PER_STATEMENT);
+                for (int chunk = 0; chunk < full; ++chunk) {
+                    bind(prepStmt, rows, columns, group, chunk * ROWS_PER_STATEMENT, ROWS_PER_STATEMENT);
+                    prepStmt.addBatch();
+                    prepStmt.clearParameters();
+                }
+                prepStmt.executeBatch();
+                prepStmt.clearBatch();
+                statementCount += full;
+            }
+
+            int rest = group.size() % ROWS_PER_STATEMENT;
+            if (rest > 0) {
+                PreparedStatement prepStmt = getStatement(mask, columns, rest);
+                bind(prepStmt, rows, columns, group, full * ROWS_PER_STATEMENT, rest);
+                prepStmt.executeUpdate();
+                prepStmt.clearParameters();
+                statementCount += 1;
+            }
+            rowCount += group.size();
+        }
+
+        double seconds = Math.max(System.nanoTime() - startTime, 1L) / 1e9;
+        String report = "LIVE STREAM REPORT:"
+                + " rows=" + rowCount
+                + " column_sets=" + groups.size()
+                + " statements=" + statementCount
+                + " statements_per_sec=" + String.format("%.1f", statementCount / seconds)
+                + " rows_per_sec=" + String.format("%.1f", rowCount / seconds)
+                + ".";
+        logger.info(report);
+    }
+
+    @Override
+    public void close() {
+        for (PreparedStatement prepStmt : statements.values()) {
+            try {
+                prepStmt.close();
+            } catch (SQLException ex) {
+                logger.error("", ex);
+            }
+        }
+        statements.clear();
+    }
+
+    private void bind(PreparedStatement prepStmt, LiveStreamBuffer rows, int[] columns,
+            List<Integer> group, int from, int count) throws SQLException {
+        int param = 1;
+        for (int i = from; i < from + count; ++i) {
+            int row = group.get(i);
+            for (int column : columns) {
+                switch (schema.get(column).getType()) {
+                case LONG:
+                    prepStmt.setLong(param++, rows.getLong(row, column));
+                    break;
+                case DOUBLE:
+                    prepStmt.setDouble(param++, rows.getDouble(row, column));
+                    break;
+                default:
+                    prepStmt.setString(param++, rows.getText(row, column));
+                }
+            }
+        }
+    }
+
+    private PreparedStatement getStatement(long mask, int[] columns, int rowCount) throws SQLException {
+        String key = Long.toHexString(mask) + ":" + rowCount;
+        PreparedStatement prepStmt = statements.get(key);
+        if (null == prepStmt) {
+            prepStmt = sqlConnection.prepareStatement(buildSql(columns, rowCount));
+            statements.put(key, prepStmt);
+        }
+        return prepStmt;
+    }
+
+    private String buildSql(int[] columns, int rowCount) {
+        StringBuilder names = new StringBuilder();
+        StringBuilder update = new StringBuilder();
+        StringBuilder tuple = new StringBuilder("(");
+        for (int i = 0; i < columns.length; ++i) {
+            String name = schema.get(columns[i]).getName();
+            if (i > 0) {
+                names.append(",");
+                update.append(",");
+                tuple.append(",");
+            }
+            names.append(name);
+            update.append(name).append("=VALUES(").append(name).append(")");
+            tuple.append("?");
+        }
+        tuple.append(")");
+
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(TABLE)
+                .append(" (").append(names).append(") VALUES ");
+        for (int i = 0; i < rowCount; ++i) {
+            sql.append(i > 0 ? "," : "").append(tuple);
+        }
+        sql.append(" ON DUPLICATE KEY UPDATE ").append(update);
+        return sql.toString();
+    }
+
+    private static int[] columnsOf(long mask) {
+        int[] columns = new int[Long.bitCount(mask)];
+        int i = 0;
+        for (long bits = mask; bits != 0L; bits &= bits - 1L) {
+            columns[i++] = Long.numberOfTrailingZeros(bits);
+        }
+        return columns;
+    }
+}
@@ -5,11 +5,7 @@
  */
 package log.analyzers;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
 import java.io.IOException;
-import java.lang.reflect.Type;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -17,12 +13,15 @@ import java.sql.SQLException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import log.parser.JsonFieldExtractor;
+import log.parser.LogRecord;
+import log.parser.LogTokenizer;
+import log.util.AdaptiveLongSet;
+import log.util.DistinctTracker;
+import log.util.LongIterator;
 import log.util.Tools;
 import org.apache.log4j.Logger;
 
@@ -30,14 +29,14 @@ import org.apache.log4j.Logger;
  *
  * @author shihab
  */
-public class LiveViewerCount implements Analyzer {
+public class LiveViewerCount implements Analyzer, FileListener {
 
     private static final Logger logger = Logger.getLogger(LiveViewerCount.class);
-    private static final Gson gson = new GsonBuilder().create();
-    private final Type mapType = new TypeToken<Map<String, Object>>() {
-    }.getType();
-    private final Pattern pattern = Pattern.compile("^(\\d{17})\\s+INFO - R \\S+ updateStreamViewCount - (.*)$");
-    private final HashMap<Long, Set<Long>> viewerEntry = new HashMap<>();
+    private static final int SSN_USER_ID = 0;
+    private static final int SESSION_USER_ID = 1;
+    private final JsonFieldExtractor viewerIdExtractor = new JsonFieldExtractor("ssnUserId", "sessionUserId");
+    private static final String VIEW_COUNT_METHOD = "updateStreamViewCount";
+    private final HashMap<Long, DistinctTracker> viewerEntry = new HashMap<>();
     private final Map<Long, Long> viewerCountMap = new HashMap<>();
 
     private final String GET_VIEWER_SQL = "SELECT viewerid FROM analytics_live_viewer_entry WHERE time = %d";
@@ -48,74 +47,197 @@ public class LiveViewerCount implements Analyzer {
 
     private static final String INSERT_VIEWER_COUNT_SQL = "INSERT INTO analytics_unique_live_viewer_count (time, count) VALUES (?, ?)"
             + " ON DUPLICATE KEY UPDATE count = VALUES (count)";
+    private static final String ADD_VIEWER_COUNT_SQL = "INSERT INTO analytics_unique_live_viewer_count (time, count) VALUES (?, ?)"
+            + " ON DUPLICATE KEY UPDATE count = count + VALUES (count)";
 
     private static final String DELETE_VIEWER_SQL = "DELETE FROM analytics_live_viewer_entry WHERE time >= ? and time < ?";
     private static final String DELETE_VIEWER_COUNT_SQL = "DELETE FROM analytics_unique_live_viewer_count WHERE time >= ? and time < ?";
 
     private final Connection sqlConnection;
 
+    private final UniqueMode mode;
+    private static final String SKETCH_METRIC = "live_viewer";
+    /**
+     * Not null in approximate mode.
+     */
+    private final UniqueSketchStore sketches;
+    /**
+     * Set for a {@link #newPartial()}, which only collects the distinct ids
+     * of its lines; the day check runs when it is merged.
+     */
+    private final boolean partial;
+
     private static final int LOOKBACK_DAYS = 30;
     private final long lookbackTime;
-    private long latestLogTime;
-    private Set<Long> viewerids = new HashSet<>();
+    /**
+     * Ids already saved per day, kept across files.
+     */
+    private final DaySetCache daySets = new DaySetCache(new DaySetCache.Loader() {
+        @Override
+        public DistinctTracker loadIds(long day) {
+            return getViewerIds(day);
+        }
+
+        @Override
+        public long loadCount(long day) {
+            return getViewerCount(day);
+        }
+    });
 
     public LiveViewerCount(Connection sqlConnection) {
+        this(sqlConnection, UniqueMode.EXACT);
+    }
+
+    /**
+     * @param sqlConnection
+     * @param mode how an id is found to be new for its day
+     */
+    public LiveViewerCount(Connection sqlConnection, UniqueMode mode) {
         this.sqlConnection = sqlConnection;
+        this.mode = mode;
+        this.sketches = UniqueMode.APPROXIMATE == mode ? new UniqueSketchStore(sqlConnection, SKETCH_METRIC) : null;
+        this.partial = false;
         lookbackTime = getLookbackTimestamp();
     }
 
+    private LiveViewerCount(LiveViewerCount parent) {
+        this.sqlConnection = parent.sqlConnection;
+        this.mode = parent.mode;
+        this.sketches = null != parent.sketches ? new UniqueSketchStore(sqlConnection, SKETCH_METRIC) : null;
+        this.partial = true;
+        lookbackTime = parent.lookbackTime;
+    }
+
     @Override
     public void clear() {
         viewerEntry.clear();
+        if (null != sketches) {
+            sketches.clear();
+        }
         viewerCountMap.clear();
-        viewerids.clear();
-        latestLogTime = 0;
+    }
+
+    @Override
+    public Subscription getSubscription() {
+        return Subscription.requests(VIEW_COUNT_METHOD);
+    }
+
+    @Override
+    public Analyzer newPartial() {
+        return new LiveViewerCount(this);
+    }
+
+    @Override
+    public void merge(Analyzer partial) {
+        LiveViewerCount other = (LiveViewerCount) partial;
+        if (null != sketches) {
+            sketches.merge(other.sketches);
+            return;
+        }
+        for (Map.Entry<Long, DistinctTracker> entry : other.viewerEntry.entrySet()) {
+            long time = entry.getKey();
+            for (LongIterator it = entry.getValue().iterator(); it.hasNext();) {
+                addViewerId(time, it.next());
+            }
+        }
     }
 
     @Override
     public boolean processLog(String log) {
-        Matcher m = pattern.matcher(log);
+        LogRecord record = LogTokenizer.parse(log);
+        return null != record && processRecord(record);
+    }
+
+    @Override
+    public boolean processRecord(LogRecord record) {
         boolean success = false;
-        if (m.matches()) {
-            long time = Long.parseLong(m.group(1).substring(0, 8));
-            String paramValue = m.group(2);
-            Long viewerId = getViewerId(paramValue);
+        if (record.isMethod(VIEW_COUNT_METHOD) && record.hasParams()) {
+            long time = record.getDay();
+            Long viewerId = getViewerId(record.getParams());
 
             if (viewerId == null) {
                 return success;
             }
 
-            if (latestLogTime != time) {
-                latestLogTime = time;
-                viewerids = getViewerIds(latestLogTime);
-                long viewerCount = getViewerCount(latestLogTime);
-                viewerCountMap.put(latestLogTime, viewerCount);
-            }
-
-            if (viewerids.contains(viewerId)) {
-                return success;
+            if (null != sketches) {
+                sketches.add(record.getHour(), viewerId);
+                return true;
             }
 
-            buildViewerEntry(time, viewerId);
-            viewerids.add(viewerId);
-            updateCount(time, 1);
+            addViewerId(time, viewerId);
             return success;
         }
         return success;
     }
 
-    private void buildViewerEntry(long time, long viewerid) {
-        if (viewerEntry.containsKey(time)) {
-            viewerEntry.get(time).add(viewerid);
-        } else {
-            Set<Long> list = new HashSet<>();
-            list.add(viewerid);
+    private void addViewerId(long time, long viewerId) {
+        if (partial || UniqueMode.INSERT_IGNORE == mode) {
+            buildViewerEntry(time, viewerId);
+            return;
+        }
+
+        DaySetCache.Day day = daySets.get(time);
+        if (!viewerCountMap.containsKey(time)) {
+            viewerCountMap.put(time, day.getCount());
+        }
+
+        if (day.contains(viewerId) || !buildViewerEntry(time, viewerId)) {
+            return;
+        }
+
+        updateCount(time, 1);
+    }
+
+    /**
+     * @return false if the id is already an entry of the day.
+     */
+    private boolean buildViewerEntry(long time, long viewerid) {
+        DistinctTracker list = viewerEntry.get(time);
+        if (null == list) {
+            list = new AdaptiveLongSet();
             viewerEntry.put(time, list);
         }
+        return list.add(viewerid);
+    }
+
+    @Override
+    public void fileStarted(Collection<Long> days) {
+        if (UniqueMode.EXACT == mode) {
+            daySets.preload(days);
+        }
+    }
+
+    @Override
+    public void fileSaved() {
+        for (Map.Entry<Long, DistinctTracker> entry : viewerEntry.entrySet()) {
+            DaySetCache.Day day = daySets.peek(entry.getKey());
+            if (null != day) {
+                day.addSaved(entry.getValue(), viewerCountMap.get(entry.getKey()));
+            }
+        }
+    }
+
+    @Override
+    public void fileRolledBack() {
+        daySets.invalidate();
     }
 
     @Override
     public void saveToDB() throws SQLException {
+        if (null != sketches) {
+            viewerCountMap.putAll(sketches.save());
+            updateViewerCount();
+            return;
+        }
+        if (UniqueMode.INSERT_IGNORE == mode) {
+            Map<Long, Long> newCounts = NewEntryWriter.insertIgnore(sqlConnection, VIEWER_INSERTION_SQL, viewerEntry);
+            NewEntryWriter.addCounts(sqlConnection, ADD_VIEWER_COUNT_SQL, newCounts);
+            logger.info("LIVE VIEWER SET REPORT: days=" + viewerEntry.size() + " retained_bytes=" + getRetainedBytes()
+                    + " new=" + newCounts + ".");
+            return;
+        }
+        logger.info("LIVE VIEWER SET REPORT: days=" + viewerEntry.size() + " retained_bytes=" + getRetainedBytes()
+                + " " + daySets.getReport() + ".");
         insertViewerEntry();
         updateViewerCount();
     }
@@ -124,9 +246,10 @@ public class LiveViewerCount implements Analyzer {
 
         try (PreparedStatement prepStmt = sqlConnection.prepareStatement(VIEWER_INSERTION_SQL)) {
             int batchLimit = Tools.SQL_BATCH_LIMIT;
-            for (Map.Entry<Long, Set<Long>> childEntry : viewerEntry.entrySet()) {
+            for (Map.Entry<Long, DistinctTracker> childEntry : viewerEntry.entrySet()) {
                 Long time = childEntry.getKey();
-                for (long viewerId : childEntry.getValue()) {
+                for (LongIterator it = childEntry.getValue().iterator(); it.hasNext();) {
+                    long viewerId = it.next();
                     prepStmt.setLong(1, time);
                     prepStmt.setLong(2, viewerId);
                     prepStmt.addBatch();
@@ -170,6 +293,20 @@ public class LiveViewerCount implements Analyzer {
         }
     }
 
+    /**
+     * @return the estimated heap bytes held by the id sets.
+     */
+    public long getRetainedBytes() {
+        long bytes = daySets.retainedBytes();
+        if (null != sketches) {
+            bytes += sketches.retainedBytes();
+        }
+        for (DistinctTracker ids : viewerEntry.values()) {
+            bytes += ids.retainedBytes();
+        }
+        return bytes;
+    }
+
     @Override
     public void recalculate(long startTime, long endTime) throws SQLException {
         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
@@ -177,6 +314,9 @@ public class LiveViewerCount implements Analyzer {
 
     @Override
     public void deleteFromDB(long startTime, long endTime) throws SQLException {
+        if (null != sketches) {
+            sketches.delete(startTime, endTime);
+        }
         try (PreparedStatement deleStmt = sqlConnection.prepareCall(DELETE_VIEWER_SQL)) {
             deleStmt.setLong(1, startTime);
             deleStmt.setLong(2, endTime);
@@ -201,9 +341,9 @@ public class LiveViewerCount implements Analyzer {
         return Long.parseLong(sdf.format(cal.getTime()));
     }
 
-    private Set<Long> getViewerIds(long time) {
+    private DistinctTracker getViewerIds(long time) {
         String sql = String.format(GET_VIEWER_SQL, time);
-        Set<Long> viewerIds = new HashSet<>();
+        DistinctTracker viewerIds = new AdaptiveLongSet();
         try (PreparedStatement prepStmt = sqlConnection.prepareStatement(sql)) {
             ResultSet rs = prepStmt.executeQuery();
             while (rs.next()) {
@@ -216,16 +356,16 @@ public class LiveViewerCount implements Analyzer {
         return viewerIds;
     }
 
-    private Long getViewerId(String paramValue) {
+    private Long getViewerId(CharSequence paramValue) {
         Long viewerId = null;
         try {
-            Map<String, Object> paramValueMap = gson.fromJson(paramValue, mapType);
-            if (paramValueMap.containsKey("ssnUserId")) {
-                viewerId = gson.toJsonTree(paramValueMap.get("ssnUserId")).getAsLong();
-            } else if (paramValueMap.containsKey("sessionUserId")) {
-                viewerId = gson.toJsonTree(paramValueMap.get("sessionUserId")).getAsLong();
+            if (viewerIdExtractor.extract(paramValue)) {
+                if (viewerIdExtractor.has(SSN_USER_ID)) {
+                    viewerId = viewerIdExtractor.get(SSN_USER_ID);
+                } else {
+                    viewerId = viewerIdExtractor.get(SESSION_USER_ID);
+                }
             }
-
             return viewerId;
         } catch (Exception ex) {
             logger.error("", ex);
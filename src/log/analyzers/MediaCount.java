@@ -1,20 +1,17 @@
 package log.analyzers;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
-import java.lang.reflect.Type;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import log.parser.FeedMediaDecoder;
+import log.parser.LogRecord;
+import log.parser.LogTokenizer;
+import log.util.HourCounter;
+import log.util.KeyIndex;
 import log.util.Tools;
 import org.apache.log4j.Logger;
-import org.ringid.newsfeeds.CassAlbumDTO;
-import org.ringid.newsfeeds.FeedDTO;
 import org.ringid.utilities.AppConstants;
 
 /**
@@ -29,14 +26,13 @@ public class MediaCount implements Analyzer {
     private static final String AUDIO = "AUDIO";
     private static final String VIDEO = "VIDEO";
 
-    private static final Gson gson = new GsonBuilder().serializeNulls().create();
+    private static final String ADD_STATUS = "addStatus";
+    private static final String ADD_PROFILE_OR_COVER_IMAGE = "addProfileOrCoverImage";
 
-    private final Pattern pattern = Pattern.compile("^(\\d{17})\\s+INFO - R \\S+ (\\w+) - (.*)$");
+    private final FeedMediaDecoder feedDecoder = new FeedMediaDecoder();
 
-    private final Type mapType = new TypeToken<Map<String, Object>>() {
-    }.getType();
-
-    private final Map<String, Map<Long, Long>> countMap = new HashMap<String, Map<Long, Long>>();
+    private final KeyIndex<String> types = new KeyIndex<>();
+    private final HourCounter counter = new HourCounter();
 
     private static final String MEDIA_COUNT_SQL
             = "INSERT INTO analytics_media_count (type, time, count) VALUES (?, ?, ?) "
@@ -50,9 +46,13 @@ public class MediaCount implements Analyzer {
         this.sqlConnection = sqlConnection;
     }
 
+    private MediaCount(MediaCount parent) {
+        this.sqlConnection = parent.sqlConnection;
+    }
+
     @Override
     public void clear() {
-        this.countMap.clear();
+        this.counter.clear();
     }
 
     @Override
@@ -60,50 +60,67 @@ public class MediaCount implements Analyzer {
         clear();
     }
 
+    @Override
+    public Subscription getSubscription() {
+        return Subscription.requests(ADD_STATUS, ADD_PROFILE_OR_COVER_IMAGE);
+    }
+
+    @Override
+    public Analyzer newPartial() {
+        return new MediaCount(this);
+    }
+
+    @Override
+    public void merge(Analyzer partial) {
+        MediaCount other = (MediaCount) partial;
+        HourCounter counts = other.counter;
+        for (int slot = counts.first(); slot >= 0; slot = counts.next(slot)) {
+            int type = types.idOf(other.types.get(counts.getDimension(slot)));
+            counter.add(type, counts.getHour(slot), counts.getCount(slot));
+        }
+    }
+
     @Override
     public boolean processLog(String log) {
-        Matcher m = pattern.matcher(log);
-        if (m.matches()) {
-            Long time = Long.parseLong(m.group(1).substring(0, 10));
-            String method = m.group(2);
+        LogRecord record = LogTokenizer.parse(log);
+        return null != record && processRecord(record);
+    }
 
+    @Override
+    public boolean processRecord(LogRecord record) {
+        if (record.isRequest() && record.hasParams()) {
             String type = null;
             int count = 0;
 
-            if (method.equalsIgnoreCase("addStatus")) {
+            if (record.isMethod(ADD_STATUS)) {
                 try {
-                    Map<String, Object> map = gson.fromJson(m.group(3), mapType);
-                    Object feedDtoValue = map.get("feedDTO");
-                    FeedDTO dto = gson.fromJson(gson.toJsonTree(feedDtoValue), FeedDTO.class);
-
-                    CassAlbumDTO albumDTO = dto.getAlbumDTO();
-                    if (null != albumDTO) {
-                        switch (dto.getContentType()) {
+                    if (feedDecoder.decode(record.getParams()) && feedDecoder.hasAlbum()) {
+                        switch (feedDecoder.getContentType()) {
 
                         case AppConstants.SINGLE_IMAGE:
                         case AppConstants.SINGLE_IMAGE_WITH_ALBUM:
                         case AppConstants.MULTIPLE_IMAGE_WITH_ALBUM:
-                            if (null != albumDTO.getImgDTOs()) {
+                            if (feedDecoder.hasImages()) {
                                 type = IMAGE;
-                                count = albumDTO.getImgDTOs().size();
+                                count = feedDecoder.getImageCount();
                             }
                             break;
 
                         case AppConstants.SINGLE_AUDIO:
                         case AppConstants.SINGLE_AUDIO_WITH_ALBUM:
                         case AppConstants.MULTIPLE_AUDIO_WITH_ALBUM:
-                            if (null != albumDTO.getMultiMediaDTOs()) {
+                            if (feedDecoder.hasMultiMedia()) {
                                 type = AUDIO;
-                                count = albumDTO.getMultiMediaDTOs().size();
+                                count = feedDecoder.getMultiMediaCount();
                             }
                             break;
 
                         case AppConstants.SINGLE_VIDEO:
                         case AppConstants.SINGLE_VIDEO_WITH_ALBUM:
                         case AppConstants.MULTIPLE_VIDEO_WITH_ALBUM:
-                            if (null != albumDTO.getMultiMediaDTOs()) {
+                            if (feedDecoder.hasMultiMedia()) {
                                 type = VIDEO;
-                                count = albumDTO.getMultiMediaDTOs().size();
+                                count = feedDecoder.getMultiMediaCount();
                             }
                             break;
                         }
@@ -113,28 +130,13 @@ public class MediaCount implements Analyzer {
                     logger.error("", ex);
                 }
             }
-            else if (method.equalsIgnoreCase("addProfileOrCoverImage")) {
+            else if (record.isMethod(ADD_PROFILE_OR_COVER_IMAGE)) {
                 type = IMAGE;
                 count = 1;
             }
 
             if (null != type && 0 < count) {
-                Map<Long, Long> hm;
-                if (countMap.containsKey(type)) {
-                    hm = countMap.get(type);
-                }
-                else {
-                    hm = new HashMap<Long, Long>();
-                    countMap.put(type, hm);
-                }
-
-                if (hm.containsKey(time)) {
-                    hm.put(time, hm.get(time) + count);
-                }
-                else {
-                    hm.put(time, (long) count);
-                }
-
+                counter.add(types.idOf(type), record.getHour(), count);
                 return true;
             }
         }
@@ -146,30 +148,24 @@ public class MediaCount implements Analyzer {
 
         try (PreparedStatement prepStmt = sqlConnection.prepareStatement(MEDIA_COUNT_SQL)) {
             int batchLimit = Tools.SQL_BATCH_LIMIT;
-            for (Map.Entry<String, Map<Long, Long>> parentEntry : countMap.entrySet()) {
-                String type = parentEntry.getKey();
-                for (Map.Entry<Long, Long> childEntry : parentEntry.getValue().entrySet()) {
-                    Long time = childEntry.getKey();
-                    Long count = childEntry.getValue();
-
-                    prepStmt.setString(1, type);
-                    prepStmt.setLong(2, time);
-                    prepStmt.setLong(3, count);
-                    prepStmt.addBatch();
-                    prepStmt.clearParameters();
-                    batchLimit -= 1;
-
-                    if (batchLimit <= 0) {
-                        prepStmt.executeBatch();
-                        prepStmt.clearBatch();
-
-                        batchLimit = Tools.SQL_BATCH_LIMIT;
-                    }
+            for (int slot = counter.first(); slot >= 0; slot = counter.next(slot)) {
+                prepStmt.setString(1, types.get(counter.getDimension(slot)));
+                prepStmt.setLong(2, counter.getHour(slot));
+                prepStmt.setLong(3, counter.getCount(slot));
+                prepStmt.addBatch();
+                prepStmt.clearParameters();
+                batchLimit -= 1;
+
+                if (batchLimit <= 0) {
+                    prepStmt.executeBatch();
+                    prepStmt.clearBatch();
+
+                    batchLimit = Tools.SQL_BATCH_LIMIT;
                 }
-
-                prepStmt.executeBatch();
-                prepStmt.clearBatch();
             }
+
+            prepStmt.executeBatch();
+            prepStmt.clearBatch();
         }
     }
 
@@ -187,7 +183,17 @@ public class MediaCount implements Analyzer {
         }
     }
 
-    Map getCountMap() {
+    Map<String, Map<Long, Long>> getCountMap() {
+        Map<String, Map<Long, Long>> countMap = new HashMap<>();
+        for (int slot = counter.first(); slot >= 0; slot = counter.next(slot)) {
+            String type = types.get(counter.getDimension(slot));
+            Map<Long, Long> hm = countMap.get(type);
+            if (null == hm) {
+                hm = new HashMap<>();
+                countMap.put(type, hm);
+            }
+            hm.put(counter.getHour(slot), counter.getCount(slot));
+        }
         return countMap;
     }
 }
@@ -3,10 +3,10 @@ package log.analyzers;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import log.parser.LogRecord;
+import log.parser.LogTokenizer;
+import log.parser.MethodDictionary;
+import log.util.HourCounter;
 import log.util.Tools;
 
 /**
@@ -15,9 +15,8 @@ import log.util.Tools;
  */
 public class MethodCount implements Analyzer {
 
-    private final Pattern pattern = Pattern.compile("^(\\d{17})\\s+INFO - R \\S+ (\\w+) .*$");
-
-    private final HashMap<String, HashMap<Long, Long>> countMap = new HashMap<>();
+    private final MethodDictionary methods = MethodDictionary.getInstance();
+    private final HourCounter counter = new HourCounter();
 
     private static final String METHOD_COUNT_SQL
             = "INSERT INTO analytics_method_count (method, time, count) VALUES (?, ?, ?) "
@@ -30,9 +29,13 @@ public class MethodCount implements Analyzer {
         this.sqlConnection = sqlConnection;
     }
 
+    private MethodCount(MethodCount parent) {
+        this.sqlConnection = parent.sqlConnection;
+    }
+
     @Override
     public void clear() {
-        this.countMap.clear();
+        this.counter.clear();
     }
 
     @Override
@@ -41,28 +44,31 @@ public class MethodCount implements Analyzer {
     }
 
     @Override
-    public boolean processLog(String log) {
-        Matcher m = pattern.matcher(log);
-        if (m.matches()) {
-            Long time = Long.parseLong(m.group(1).substring(0, 10));
-            String method = m.group(2);
-
-            HashMap<Long, Long> hm;
-            if (countMap.containsKey(method)) {
-                hm = countMap.get(method);
-            }
-            else {
-                hm = new HashMap<Long, Long>();
-                countMap.put(method, hm);
-            }
+    public Subscription getSubscription() {
+        return Subscription.allRequests();
+    }
 
-            if (hm.containsKey(time)) {
-                hm.put(time, hm.get(time) + 1L);
-            }
-            else {
-                hm.put(time, 1L);
-            }
+    @Override
+    public Analyzer newPartial() {
+        return new MethodCount(this);
+    }
 
+    @Override
+    public void merge(Analyzer partial) {
+        // method ids are global, see MethodDictionary
+        counter.addAll(((MethodCount) partial).counter);
+    }
+
+    @Override
+    public boolean processLog(String log) {
+        LogRecord record = LogTokenizer.parse(log);
+        return null != record && processRecord(record);
+    }
+
+    @Override
+    public boolean processRecord(LogRecord record) {
+        if (record.isRequest()) {
+            counter.increment(record.getMethodId(), record.getHour());
             return true;
         }
         return false;
@@ -72,32 +78,25 @@ public class MethodCount implements Analyzer {
     public void saveToDB() throws SQLException {
 
         try (PreparedStatement prepStmt = sqlConnection.prepareStatement(METHOD_COUNT_SQL)) {
-            for (Map.Entry<String, HashMap<Long, Long>> parentEntry : countMap.entrySet()) {
-                int batchLimit = Tools.SQL_BATCH_LIMIT;
-                String method = parentEntry.getKey();
-
-                for (Map.Entry<Long, Long> childEntry : parentEntry.getValue().entrySet()) {
-                    Long time = childEntry.getKey();
-                    Long count = childEntry.getValue();
-
-                    prepStmt.setString(1, method);
-                    prepStmt.setLong(2, time);
-                    prepStmt.setLong(3, count);
-                    prepStmt.addBatch();
-                    prepStmt.clearParameters();
-                    batchLimit -= 1;
-
-                    if (batchLimit <= 0) {
-                        prepStmt.executeBatch();
-                        prepStmt.clearBatch();
-
-                        batchLimit = Tools.SQL_BATCH_LIMIT;
-                    }
+            int batchLimit = Tools.SQL_BATCH_LIMIT;
+            for (int slot = counter.first(); slot >= 0; slot = counter.next(slot)) {
+                prepStmt.setString(1, methods.getName(counter.getDimension(slot)));
+                prepStmt.setLong(2, counter.getHour(slot));
+                prepStmt.setLong(3, counter.getCount(slot));
+                prepStmt.addBatch();
+                prepStmt.clearParameters();
+                batchLimit -= 1;
+
+                if (batchLimit <= 0) {
+                    prepStmt.executeBatch();
+                    prepStmt.clearBatch();
+
+                    batchLimit = Tools.SQL_BATCH_LIMIT;
                 }
-
-                prepStmt.executeBatch();
-                prepStmt.clearBatch();
             }
+
+            prepStmt.executeBatch();
+            prepStmt.clearBatch();
         }
     }
 
@@ -0,0 +1,86 @@
+package log.analyzers;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import log.util.DistinctTracker;
+import log.util.LongIterator;
+import log.util.Tools;
+
+/**
+ * Writes per-day entries with INSERT IGNORE and counts the rows that were
+ * really new from the update counts of executeBatch: 1 for an inserted row,
+ * 0 for an ignored duplicate.<br>
+ * The driver must report per-row counts, i.e. the connection must not use
+ * rewriteBatchedStatements.
+ *
+ * @author sazzad
+ */
+class NewEntryWriter {
+
+    /**
+     * @param insertSql an INSERT IGNORE of (time, id)
+     * @return the number of new rows per day.
+     */
+    static Map<Long, Long> insertIgnore(Connection sqlConnection, String insertSql,
+            Map<Long, DistinctTracker> entries) throws SQLException {
+        Map<Long, Long> newCounts = new HashMap<>();
+        try (PreparedStatement prepStmt = sqlConnection.prepareStatement(insertSql)) {
+            for (Map.Entry<Long, DistinctTracker> entry : entries.entrySet()) {
+                long time = entry.getKey();
+                long inserted = 0L;
+                int batchLimit = Tools.SQL_BATCH_LIMIT;
+                for (LongIterator it = entry.getValue().iterator(); it.hasNext();) {
+                    prepStmt.setLong(1, time);
+                    prepStmt.setLong(2, it.next());
+                    prepStmt.addBatch();
+                    prepStmt.clearParameters();
+                    batchLimit -= 1;
+
+                    if (batchLimit <= 0) {
+                        inserted += countInserted(prepStmt.executeBatch());
+                        prepStmt.clearBatch();
+                        batchLimit = Tools.SQL_BATCH_LIMIT;
+                    }
+                }
+                inserted += countInserted(prepStmt.executeBatch());
+                prepStmt.clearBatch();
+                newCounts.put(time, inserted);
+            }
+        }
+        return newCounts;
+    }
+
+    /**
+     * @param addSql an upsert of (time, count) adding to the stored count
+     */
+    static void addCounts(Connection sqlConnection, String addSql, Map<Long, Long> counts) throws SQLException {
+        try (PreparedStatement prepStmt = sqlConnection.prepareStatement(addSql)) {
+            for (Map.Entry<Long, Long> entry : counts.entrySet()) {
+                prepStmt.setLong(1, entry.getKey());
+                prepStmt.setLong(2, entry.getValue());
+                prepStmt.addBatch();
+                prepStmt.clearParameters();
+            }
+            prepStmt.executeBatch();
+            prepStmt.clearBatch();
+        }
+    }
+
+    private static long countInserted(int[] results) throws SQLException {
+        long inserted = 0L;
+        for (int result : results) {
+            if (Statement.SUCCESS_NO_INFO == result) {
+                throw new SQLException("The driver did not report per-row update counts; "
+                        + "INSERT_IGNORE mode needs rewriteBatchedStatements off.");
+            }
+            if (result > 0) {
+                ++inserted;
+            }
+        }
+        return inserted;
+    }
+}
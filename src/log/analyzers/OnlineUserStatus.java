@@ -5,18 +5,15 @@
  */
 package log.analyzers;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
 import java.io.IOException;
-import java.lang.reflect.Type;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import log.parser.JsonFieldExtractor;
+import log.parser.LogRecord;
+import log.parser.LogTokenizer;
 import log.util.Tools;
 import org.apache.log4j.Logger;
 
@@ -27,11 +24,11 @@ import org.apache.log4j.Logger;
 public class OnlineUserStatus implements Analyzer {
 
     private static final Logger logger = Logger.getLogger(OnlineUserStatus.class);
-    private static final Gson gson = new GsonBuilder().create();
-    private final Type mapType = new TypeToken<Map<String, Object>>() {
-    }.getType();
-    private final Pattern pattern = Pattern.compile("^(\\d{17})\\s+INFO - R \\S+ userOnlineStatus - (.*)$");
-    private final Map<Long, Map<String, Object>> userOnlineInfo = new HashMap<>();
+    private static final String ONLINE_STATUS_METHOD = "userOnlineStatus";
+    private static final int USERID_INDEX = 0;
+    private static final int STATUS_INDEX = 1;
+    private final Map<Long, long[]> userOnlineInfo = new HashMap<>();
+    private final JsonFieldExtractor extractor = new JsonFieldExtractor(Constant.USERID, Constant.STATUS);
     private final Connection sqlConnection;
     private static final String USER_INSERTION_SQL = "INSERT IGNORE INTO analytics_user_online_status (time, userid, status) VALUES (?, ?, ?) ";
     private static final String DELETE_ONLINE_USER_STATUS_COUNT = "DELETE FROM analytics_user_online_status WHERE time >= ? and time < ?";
@@ -40,55 +37,72 @@ public class OnlineUserStatus implements Analyzer {
         this.sqlConnection = sqlConnection;
     }
 
+    @Override
+    public Analyzer newPartial() {
+        return new OnlineUserStatus(sqlConnection);
+    }
+
+    @Override
+    public void merge(Analyzer partial) {
+        userOnlineInfo.putAll(((OnlineUserStatus) partial).userOnlineInfo);
+    }
+
     @Override
     public void clear() {
         userOnlineInfo.clear();
     }
 
+    @Override
+    public Subscription getSubscription() {
+        return Subscription.requests(ONLINE_STATUS_METHOD);
+    }
+
     @Override
     public boolean processLog(String log) {
-        Matcher m = pattern.matcher(log);
-        if (m.matches()) {
-            long time = Long.parseLong(m.group(1));
-            String paramValue = m.group(2);
-            Map<String, Object> paramMap = stringToMap(paramValue);
+        LogRecord record = LogTokenizer.parse(log);
+        return null != record && processRecord(record);
+    }
 
-            if (paramMap.isEmpty()) {
+    @Override
+    public boolean processRecord(LogRecord record) {
+        if (record.isMethod(ONLINE_STATUS_METHOD) && record.hasParams()) {
+            long time = record.getTimestamp();
+            long[] userStatus = getUserStatus(record.getParams());
+
+            if (null == userStatus) {
                 return false;
             }
-            userOnlineInfo.put(time, paramMap);
+            userOnlineInfo.put(time, userStatus);
+            return true;
         }
 
-        return true;
+        return false;
     }
 
-    private Map<String, Object> stringToMap(String source) {
-        Map<String, Object> target = new HashMap<>();
+    /**
+     * @return {userId, status}, or null if either is missing.
+     */
+    private long[] getUserStatus(CharSequence source) {
         try {
-            target = gson.fromJson(source, mapType);
+            if (extractor.extract(source) && extractor.has(USERID_INDEX) && extractor.has(STATUS_INDEX)) {
+                return new long[]{extractor.get(USERID_INDEX), extractor.get(STATUS_INDEX)};
+            }
         } catch (Exception ex) {
             logger.error("", ex);
         }
-        return target;
+        return null;
     }
 
     @Override
     public void saveToDB() throws SQLException {
         try (PreparedStatement prepStmt = sqlConnection.prepareStatement(USER_INSERTION_SQL)) {
             int batchLimit = Tools.SQL_BATCH_LIMIT;
-            for (Map.Entry<Long, Map<String, Object>> childEntry : userOnlineInfo.entrySet()) {
+            for (Map.Entry<Long, long[]> childEntry : userOnlineInfo.entrySet()) {
                 Long time = childEntry.getKey();
-                Map<String, Object> param = childEntry.getValue();
-                try {
-                    long userid = gson.toJsonTree(param.get(Constant.USERID)).getAsLong();
-                    long status = gson.toJsonTree(param.get(Constant.STATUS)).getAsLong();
-                    prepStmt.setLong(1, time);
-                    prepStmt.setLong(2, userid);
-                    prepStmt.setLong(3, status);
-                } catch (Exception ex) {
-                    logger.error("", ex);
-                    continue;
-                }
+                long[] userStatus = childEntry.getValue();
+                prepStmt.setLong(1, time);
+                prepStmt.setLong(2, userStatus[USERID_INDEX]);
+                prepStmt.setLong(3, userStatus[STATUS_INDEX]);
 
                 prepStmt.addBatch();
                 prepStmt.clearParameters();
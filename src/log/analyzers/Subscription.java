@@ -0,0 +1,89 @@
+package log.analyzers;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import log.parser.LogRecord;
+
+/**
+ * The log lines an {@link Analyzer} wants to be offered, by level and, for
+ * request lines, by method name. The dispatcher never calls
+ * {@link Analyzer#processRecord} for lines outside the subscription.
+ *
+ * @author sazzad
+ */
+public class Subscription {
+
+    public enum Scope {
+        /**
+         * Every line of the levels.
+         */
+        ALL_LINES,
+        /**
+         * Request lines ("INFO - R ..."), optionally limited to some methods.
+         */
+        REQUESTS,
+        /**
+         * Lines of the levels which are not request lines.
+         */
+        NON_REQUESTS
+    }
+
+    private final Scope scope;
+    private final Set<String> levels;
+    private final Set<String> methods;
+
+    private Subscription(Scope scope, Set<String> levels, Set<String> methods) {
+        this.scope = scope;
+        this.levels = Collections.unmodifiableSet(levels);
+        this.methods = null == methods ? null : Collections.unmodifiableSet(methods);
+    }
+
+    public static Subscription allLines(String... levels) {
+        return new Subscription(Scope.ALL_LINES, toSet(levels), null);
+    }
+
+    public static Subscription allRequests() {
+        return new Subscription(Scope.REQUESTS, toSet(LogRecord.INFO), null);
+    }
+
+    public static Subscription requests(String... methods) {
+        return requests(Arrays.asList(methods));
+    }
+
+    public static Subscription requests(Iterable<String> methods) {
+        Set<String> set = new LinkedHashSet<>();
+        for (String method : methods) {
+            set.add(method);
+        }
+        return new Subscription(Scope.REQUESTS, toSet(LogRecord.INFO), set);
+    }
+
+    public static Subscription nonRequests(String... levels) {
+        return new Subscription(Scope.NON_REQUESTS, toSet(levels), null);
+    }
+
+    public Scope getScope() {
+        return scope;
+    }
+
+    public Set<String> getLevels() {
+        return levels;
+    }
+
+    /**
+     * @return the subscribed method names, or null for all methods.
+     */
+    public Set<String> getMethods() {
+        return methods;
+    }
+
+    public boolean isAllMethods() {
+        return null == methods;
+    }
+
+    private static Set<String> toSet(String... values) {
+        return new LinkedHashSet<>(Arrays.asList(values));
+    }
+}
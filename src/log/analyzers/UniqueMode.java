@@ -0,0 +1,40 @@
+package log.analyzers;
+
+/**
+ * How {@link UserCount} and {@link LiveViewerCount} decide that an id is new
+ * for its day.
+ *
+ * @author sazzad
+ */
+public enum UniqueMode {
+
+    /**
+     * Loads the ids already stored for the day and checks against them.
+     */
+    EXACT,
+    /**
+     * Keeps HyperLogLog sketches and writes no ids, see
+     * {@link UniqueSketchStore}.
+     */
+    APPROXIMATE,
+    /**
+     * Writes the ids of the file with INSERT IGNORE and counts the rows
+     * actually inserted; nothing is read back.
+     */
+    INSERT_IGNORE;
+
+    /**
+     * @return the mode named by the value, ignoring case; EXACT for null or
+     * an unknown name.
+     */
+    public static UniqueMode parse(String value) {
+        if (null != value) {
+            for (UniqueMode mode : values()) {
+                if (mode.name().equalsIgnoreCase(value.trim())) {
+                    return mode;
+                }
+            }
+        }
+        return EXACT;
+    }
+}
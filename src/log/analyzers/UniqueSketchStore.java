@@ -0,0 +1,251 @@
+package log.analyzers;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import log.util.HyperLogLog;
+
+/**
+ * HyperLogLog sketches of one unique count metric in
+ * analytics_unique_sketch, for the approximate mode of {@link UserCount} and
+ * {@link LiveViewerCount}.<br>
+ * Hour rows (time yyyyMMddHH) are the source: a save merges the sketches of
+ * the current file into the stored ones. Day rows (time yyyyMMdd) are
+ * rebuilt from the hours of the day after every save and delete, so a
+ * revisit, which deletes and reprocesses a range of hours, leaves correct
+ * days behind. The weeks and months of those days are rebuilt from their
+ * day rows in turn, under the metric <code>&lt;metric&gt;.week</code> (time
+ * yyyyMMdd of the Monday) and <code>&lt;metric&gt;.month</code> (time
+ * yyyyMM); their count column is the weekly and monthly unique estimate.
+ *
+ * @author sazzad
+ */
+public class UniqueSketchStore {
+
+    private static final String SELECT_SKETCH_SQL
+            = "SELECT sketch FROM analytics_unique_sketch WHERE metric = ? AND time = ? FOR UPDATE";
+    private static final String SELECT_RANGE_SQL
+            = "SELECT sketch FROM analytics_unique_sketch WHERE metric = ? AND time >= ? AND time < ?";
+    private static final String UPSERT_SKETCH_SQL
+            = "INSERT INTO analytics_unique_sketch (metric, time, sketch, count) VALUES (?, ?, ?, ?) "
+            + "ON DUPLICATE KEY UPDATE sketch = VALUES (sketch), count = VALUES (count)";
+    private static final String DELETE_SKETCH_SQL
+            = "DELETE FROM analytics_unique_sketch WHERE metric = ? AND time >= ? AND time < ?";
+
+    private static final String WEEK_SUFFIX = ".week";
+    private static final String MONTH_SUFFIX = ".month";
+
+    private final Connection sqlConnection;
+    private final String metric;
+    private final Map<Long, HyperLogLog> hourSketches = new HashMap<>();
+
+    public UniqueSketchStore(Connection sqlConnection, String metric) {
+        this.sqlConnection = sqlConnection;
+        this.metric = metric;
+    }
+
+    /**
+     * @param hour yyyyMMddHH
+     * @param id
+     */
+    public void add(long hour, long id) {
+        HyperLogLog sketch = hourSketches.get(hour);
+        if (null == sketch) {
+            sketch = new HyperLogLog();
+            hourSketches.put(hour, sketch);
+        }
+        sketch.add(id);
+    }
+
+    public void clear() {
+        hourSketches.clear();
+    }
+
+    /**
+     * Merges the buffered hours of another store of the same metric.
+     */
+    public void merge(UniqueSketchStore other) {
+        for (Map.Entry<Long, HyperLogLog> entry : other.hourSketches.entrySet()) {
+            HyperLogLog sketch = hourSketches.get(entry.getKey());
+            if (null == sketch) {
+                sketch = new HyperLogLog();
+                hourSketches.put(entry.getKey(), sketch);
+            }
+            sketch.merge(entry.getValue());
+        }
+    }
+
+    public long retainedBytes() {
+        return hourSketches.size() * (long) ((1 << HyperLogLog.DEFAULT_PRECISION) + 64);
+    }
+
+    /**
+     * Merges the buffered hours into the stored ones and rebuilds their
+     * days, weeks and months.
+     *
+     * @return the estimated unique count of every day touched (yyyyMMdd).
+     */
+    public Map<Long, Long> save() throws SQLException {
+        TreeSet<Long> days = new TreeSet<>();
+        for (Map.Entry<Long, HyperLogLog> entry : hourSketches.entrySet()) {
+            long hour = entry.getKey();
+            HyperLogLog sketch = entry.getValue();
+            HyperLogLog stored = load(hour);
+            if (null != stored) {
+                sketch.merge(stored);
+            }
+            upsert(metric, hour, sketch);
+            days.add(hour / 100);
+        }
+
+        Map<Long, Long> dayCounts = new TreeMap<>();
+        for (long day : days) {
+            dayCounts.put(day, rebuild(metric, day, day * 100, day * 100 + 100));
+        }
+        rebuildPeriods(days);
+        return dayCounts;
+    }
+
+    /**
+     * Deletes the hours in [startHour, endHour) and rebuilds their days,
+     * weeks and months.
+     */
+    public void delete(long startHour, long endHour) throws SQLException {
+        delete(metric, startHour, endHour);
+        TreeSet<Long> days = new TreeSet<>();
+        for (long day = startHour / 100; day <= (endHour - 1) / 100; day = nextDay(day)) {
+            rebuild(metric, day, day * 100, day * 100 + 100);
+            days.add(day);
+        }
+        rebuildPeriods(days);
+    }
+
+    /**
+     * Rebuilds the weeks and months of the days from their day rows; day
+     * rows (8 digits) are the only rows of the metric within a yyyyMMdd
+     * range.
+     */
+    private void rebuildPeriods(Set<Long> days) throws SQLException {
+        TreeSet<Long> weeks = new TreeSet<>();
+        TreeSet<Long> months = new TreeSet<>();
+        for (long day : days) {
+            weeks.add(weekStart(day));
+            months.add(day / 100);
+        }
+        for (long week : weeks) {
+            rebuild(metric + WEEK_SUFFIX, week, week, addDays(week, 7));
+        }
+        for (long month : months) {
+            rebuild(metric + MONTH_SUFFIX, month, month * 100, month * 100 + 100);
+        }
+    }
+
+    /**
+     * Merges the rows of this metric in [start, end) into the row
+     * <code>time</code> of <code>target</code>, or deletes that row if
+     * there are none.
+     *
+     * @return the estimated unique count of the row, 0 if deleted.
+     */
+    private long rebuild(String target, long time, long start, long end) throws SQLException {
+        HyperLogLog merged = mergeRange(start, end);
+        if (null == merged) {
+            delete(target, time, time + 1);
+            return 0L;
+        }
+        return upsert(target, time, merged);
+    }
+
+    private void delete(String target, long start, long end) throws SQLException {
+        try (PreparedStatement deleStmt = sqlConnection.prepareStatement(DELETE_SKETCH_SQL)) {
+            deleStmt.setString(1, target);
+            deleStmt.setLong(2, start);
+            deleStmt.setLong(3, end);
+            deleStmt.execute();
+        }
+    }
+
+    private HyperLogLog mergeRange(long start, long end) throws SQLException {
+        HyperLogLog merged = null;
+        try (PreparedStatement prepStmt = sqlConnection.prepareStatement(SELECT_RANGE_SQL)) {
+            prepStmt.setString(1, metric);
+            prepStmt.setLong(2, start);
+            prepStmt.setLong(3, end);
+            ResultSet rs = prepStmt.executeQuery();
+            while (rs.next()) {
+                HyperLogLog sketch = HyperLogLog.fromBytes(rs.getBytes("sketch"));
+                if (null == merged) {
+                    merged = sketch;
+                } else {
+                    merged.merge(sketch);
+                }
+            }
+        }
+        return merged;
+    }
+
+    private HyperLogLog load(long time) throws SQLException {
+        try (PreparedStatement prepStmt = sqlConnection.prepareStatement(SELECT_SKETCH_SQL)) {
+            prepStmt.setString(1, metric);
+            prepStmt.setLong(2, time);
+            ResultSet rs = prepStmt.executeQuery();
+            return rs.next() ? HyperLogLog.fromBytes(rs.getBytes("sketch")) : null;
+        }
+    }
+
+    private long upsert(String target, long time, HyperLogLog sketch) throws SQLException {
+        long count = sketch.cardinality();
+        try (PreparedStatement prepStmt = sqlConnection.prepareStatement(UPSERT_SKETCH_SQL)) {
+            prepStmt.setString(1, target);
+            prepStmt.setLong(2, time);
+            prepStmt.setBytes(3, sketch.toBytes());
+            prepStmt.setLong(4, count);
+            prepStmt.execute();
+        }
+        return count;
+    }
+
+    /**
+     * @return the yyyyMMdd after <code>day</code>, counting 31 days in every
+     * month; a day that does not exist simply has no rows.
+     */
+    private static long nextDay(long day) {
+        long next = day + 1;
+        if (next % 100 > 31) {
+            next = (next / 100 + 1) * 100 + 1;
+            if (next / 100 % 100 > 12) {
+                next = (next / 10000 + 1) * 10000 + 101;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * @return the yyyyMMdd of the Monday of the week of <code>day</code>.
+     */
+    static long weekStart(long day) {
+        Calendar cal = toCalendar(day);
+        int offset = (cal.get(Calendar.DAY_OF_WEEK) - Calendar.MONDAY + 7) % 7;
+        return addDays(day, -offset);
+    }
+
+    static long addDays(long day, int days) {
+        Calendar cal = toCalendar(day);
+        cal.add(Calendar.DATE, days);
+        return cal.get(Calendar.YEAR) * 10000L + (cal.get(Calendar.MONTH) + 1) * 100L + cal.get(Calendar.DATE);
+    }
+
+    private static Calendar toCalendar(long day) {
+        Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set((int) (day / 10000), (int) (day / 100 % 100) - 1, (int) (day % 100));
+        return cal;
+    }
+}
@@ -5,11 +5,7 @@
  */
 package log.analyzers;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
 import java.io.IOException;
-import java.lang.reflect.Type;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -17,12 +13,16 @@ import java.sql.SQLException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import log.parser.JsonFieldExtractor;
+import log.parser.LogRecord;
+import log.parser.LogTokenizer;
+import log.util.AdaptiveLongSet;
+import log.util.DistinctTracker;
+import log.util.LongIterator;
+import log.parser.MethodDictionary;
 import log.util.Tools;
 import org.apache.log4j.Logger;
 
@@ -32,14 +32,14 @@ import static java.lang.String.format;
  *
  * @author shihab
  */
-public class UserCount implements Analyzer {
+public class UserCount implements Analyzer, FileListener {
 
     private static final Logger logger = Logger.getLogger(UserCount.class);
-    private static final Gson gson = new GsonBuilder().create();
-    private final Type mapType = new TypeToken<Map<String, Object>>() {
-    }.getType();
-    private final Pattern pattern = Pattern.compile("^(\\d{17})\\s+INFO - R \\S+ (\\w+) - (.*)$");
-    private final HashMap<Long, Set<Long>> userEntry = new HashMap<>();
+    /**
+     * User id extractors by method id.
+     */
+    private final JsonFieldExtractor[] userIdExtractors;
+    private final HashMap<Long, DistinctTracker> userEntry = new HashMap<>();
     private final Map<Long, Long> userCountMap = new HashMap<>();
     private final String GET_USER_SQL = "SELECT userid FROM analytics_user_entry WHERE time = %d";
     private final String GET_USER_COUNT_SQL = "SELECT count FROM analytics_unique_user_count WHERE time = %d";
@@ -54,80 +54,213 @@ public class UserCount implements Analyzer {
 
     private static final String INSERT_USER_COUNT_SQL = "INSERT INTO analytics_unique_user_count (time, count) VALUES (?, ?)"
             + " ON DUPLICATE KEY UPDATE count = VALUES(count)";
+    private static final String ADD_USER_COUNT_SQL = "INSERT INTO analytics_unique_user_count (time, count) VALUES (?, ?)"
+            + " ON DUPLICATE KEY UPDATE count = count + VALUES(count)";
 
     private static final String DELETE_USER_SQL = "DELETE FROM analytics_user_entry WHERE time >= ? and time < ?";
     private static final String DELETE_USER_COUNT_SQL = "DELETE FROM analytics_unique_user_count WHERE time >= ? and time < ?";
 
     private final Connection sqlConnection;
 
+    private final UniqueMode mode;
+    private static final String SKETCH_METRIC = "user";
+    /**
+     * Not null in approximate mode.
+     */
+    private final UniqueSketchStore sketches;
+    /**
+     * Set for a {@link #newPartial()}, which only collects the distinct ids
+     * of its lines; the day check runs when it is merged.
+     */
+    private final boolean partial;
+
     private static final int LOOKBACK_DAYS = 30;
     private final long lookbackTime;
-    private long processingLogDay;
-    private Set<Long> processedUserIds = new HashSet<>();
+    /**
+     * Ids already saved per day, kept across files.
+     */
+    private final DaySetCache daySets = new DaySetCache(new DaySetCache.Loader() {
+        @Override
+        public DistinctTracker loadIds(long day) {
+            return getUserIds(day);
+        }
+
+        @Override
+        public long loadCount(long day) {
+            return getUserCount(day);
+        }
+    });
 
     public UserCount(Connection sqlConnection) {
+        this(sqlConnection, UniqueMode.EXACT);
+    }
+
+    /**
+     * @param sqlConnection
+     * @param mode how an id is found to be new for its day
+     */
+    public UserCount(Connection sqlConnection, UniqueMode mode) {
         this.sqlConnection = sqlConnection;
+        this.mode = mode;
+        this.sketches = UniqueMode.APPROXIMATE == mode ? new UniqueSketchStore(sqlConnection, SKETCH_METRIC) : null;
+        this.partial = false;
         lookbackTime = getLookbackTimestamp();
+        userIdExtractors = createUserIdExtractors();
+    }
+
+    private UserCount(UserCount parent) {
+        this.sqlConnection = parent.sqlConnection;
+        this.mode = parent.mode;
+        this.sketches = null != parent.sketches ? new UniqueSketchStore(sqlConnection, SKETCH_METRIC) : null;
+        this.partial = true;
+        lookbackTime = parent.lookbackTime;
+        userIdExtractors = createUserIdExtractors();
+    }
+
+    private static JsonFieldExtractor[] createUserIdExtractors() {
+        MethodDictionary dictionary = MethodDictionary.getInstance();
+        for (String method : Constant.METHOD_USER_KEY.keySet()) {
+            dictionary.idOf(method);
+        }
+        JsonFieldExtractor[] extractors = new JsonFieldExtractor[dictionary.size()];
+        for (Map.Entry<String, String> entry : Constant.METHOD_USER_KEY.entrySet()) {
+            extractors[dictionary.find(entry.getKey())] = new JsonFieldExtractor(entry.getValue());
+        }
+        return extractors;
     }
 
     @Override
     public void clear() {
         userEntry.clear();
+        if (null != sketches) {
+            sketches.clear();
+        }
         userCountMap.clear();
-        processedUserIds.clear();
-        processingLogDay = 0;
+    }
+
+    @Override
+    public Subscription getSubscription() {
+        return Subscription.requests(Constant.METHOD_USER_KEY.keySet());
+    }
+
+    @Override
+    public Analyzer newPartial() {
+        return new UserCount(this);
+    }
+
+    @Override
+    public void merge(Analyzer partial) {
+        UserCount other = (UserCount) partial;
+        if (null != sketches) {
+            sketches.merge(other.sketches);
+            return;
+        }
+        for (Map.Entry<Long, DistinctTracker> entry : other.userEntry.entrySet()) {
+            long time = entry.getKey();
+            for (LongIterator it = entry.getValue().iterator(); it.hasNext();) {
+                addUserId(time, it.next());
+            }
+        }
     }
 
     @Override
     public boolean processLog(String log) {
-        Matcher m = pattern.matcher(log);
-        if (m.matches()) {
-            long time = Long.parseLong(m.group(1).substring(0, 8));
-
-            if (processingLogDay != time) {
-                processingLogDay = time;
-                processedUserIds = getUserIds(processingLogDay);
-                long userCount = getUserCount(processingLogDay);
-                userCountMap.put(processingLogDay, userCount);
+        LogRecord record = LogTokenizer.parse(log);
+        return null != record && processRecord(record);
+    }
+
+    @Override
+    public boolean processRecord(LogRecord record) {
+        if (record.isRequest() && record.hasParams()) {
+            if (null != sketches) {
+                Long userId = getUserId(record.getParams(), record.getMethodId());
+                if (null == userId) {
+                    return false;
+                }
+                sketches.add(record.getHour(), userId);
+                return true;
             }
 
 //            if(time < lookbackTime) {
 //                return success;
 //            }
-            String method = m.group(2);
-            String paramValue = m.group(3);
-            Long userId = getUserId(paramValue, method);
+            Long userId = getUserId(record.getParams(), record.getMethodId());
+            return null != userId && addUserId(record.getDay(), userId);
+        }
+        return false;
+    }
 
-            if (userId == null || processedUserIds.contains(userId)) {
-                return false;
-            }
+    /**
+     * @return true if the id is new for the day.
+     */
+    private boolean addUserId(long time, long userId) {
+        if (partial || UniqueMode.INSERT_IGNORE == mode) {
+            // new for the file only, the database decides the rest on save
+            return buildUserEntry(time, userId);
+        }
 
-            buildUserEntry(time, userId);
-            processedUserIds.add(userId);
+        DaySetCache.Day day = daySets.get(time);
+        if (!userCountMap.containsKey(time)) {
+            userCountMap.put(time, day.getCount());
+        }
+        if (day.contains(userId) || !buildUserEntry(time, userId)) {
+            return false;
+        }
 
-            if (userCountMap.containsKey(time)) {
-                userCountMap.put(time, userCountMap.get(time) + 1L);
-            } else {
-                userCountMap.put(time, 1L);
-            }
+        userCountMap.put(time, userCountMap.get(time) + 1L);
+        return true;
+    }
 
-            return true;
+    /**
+     * @return false if the id is already an entry of the day.
+     */
+    private boolean buildUserEntry(long time, long userid) {
+        DistinctTracker list = userEntry.get(time);
+        if (null == list) {
+            list = new AdaptiveLongSet();
+            userEntry.put(time, list);
         }
-        return false;
+        return list.add(userid);
     }
 
-    private void buildUserEntry(long time, long userid) {
-        if (userEntry.containsKey(time)) {
-            userEntry.get(time).add(userid);
-        } else {
-            Set<Long> list = new HashSet<>();
-            list.add(userid);
-            userEntry.put(time, list);
+    @Override
+    public void fileStarted(Collection<Long> days) {
+        if (UniqueMode.EXACT == mode) {
+            daySets.preload(days);
+        }
+    }
+
+    @Override
+    public void fileSaved() {
+        for (Map.Entry<Long, DistinctTracker> entry : userEntry.entrySet()) {
+            DaySetCache.Day day = daySets.peek(entry.getKey());
+            if (null != day) {
+                day.addSaved(entry.getValue(), userCountMap.get(entry.getKey()));
+            }
         }
     }
 
+    @Override
+    public void fileRolledBack() {
+        daySets.invalidate();
+    }
+
     @Override
     public void saveToDB() throws SQLException {
+        if (null != sketches) {
+            userCountMap.putAll(sketches.save());
+            updateUserCount();
+            return;
+        }
+        if (UniqueMode.INSERT_IGNORE == mode) {
+            Map<Long, Long> newCounts = NewEntryWriter.insertIgnore(sqlConnection, USER_INSERTION_SQL, userEntry);
+            NewEntryWriter.addCounts(sqlConnection, ADD_USER_COUNT_SQL, newCounts);
+            logger.info("USER SET REPORT: days=" + userEntry.size() + " retained_bytes=" + getRetainedBytes()
+                    + " new=" + newCounts + ".");
+            return;
+        }
+        logger.info("USER SET REPORT: days=" + userEntry.size() + " retained_bytes=" + getRetainedBytes()
+                + " " + daySets.getReport() + ".");
         insertUserEntry();
 //        delPreviousUser();
         updateUserCount();
@@ -137,9 +270,10 @@ public class UserCount implements Analyzer {
 
         try (PreparedStatement prepStmt = sqlConnection.prepareStatement(USER_INSERTION_SQL)) {
             int batchLimit = Tools.SQL_BATCH_LIMIT;
-            for (Map.Entry<Long, Set<Long>> childEntry : userEntry.entrySet()) {
+            for (Map.Entry<Long, DistinctTracker> childEntry : userEntry.entrySet()) {
                 Long time = childEntry.getKey();
-                for (long userid : childEntry.getValue()) {
+                for (LongIterator it = childEntry.getValue().iterator(); it.hasNext();) {
+                    long userid = it.next();
                     prepStmt.setLong(1, time);
                     prepStmt.setLong(2, userid);
                     prepStmt.addBatch();
@@ -191,6 +325,20 @@ public class UserCount implements Analyzer {
         }
     }
 
+    /**
+     * @return the estimated heap bytes held by the id sets.
+     */
+    public long getRetainedBytes() {
+        long bytes = daySets.retainedBytes();
+        if (null != sketches) {
+            bytes += sketches.retainedBytes();
+        }
+        for (DistinctTracker ids : userEntry.values()) {
+            bytes += ids.retainedBytes();
+        }
+        return bytes;
+    }
+
     @Override
     public void recalculate(long startTime, long endTime) throws SQLException {
         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
@@ -198,6 +346,9 @@ public class UserCount implements Analyzer {
 
     @Override
     public void deleteFromDB(long startTime, long endTime) throws SQLException {
+        if (null != sketches) {
+            sketches.delete(startTime, endTime);
+        }
         try (PreparedStatement deleStmt = sqlConnection.prepareCall(DELETE_USER_SQL)) {
             deleStmt.setLong(1, startTime);
             deleStmt.setLong(2, endTime);
@@ -223,9 +374,9 @@ public class UserCount implements Analyzer {
         return Long.parseLong(sdf.format(cal.getTime()));
     }
 
-    private Set<Long> getUserIds(long time) {
+    private DistinctTracker getUserIds(long time) {
         String sql = String.format(GET_USER_SQL, time);
-        Set<Long> userIds = new HashSet<>();
+        DistinctTracker userIds = new AdaptiveLongSet();
         try (PreparedStatement prepStmt = sqlConnection.prepareStatement(sql)) {
             ResultSet rs = prepStmt.executeQuery();
             while (rs.next()) {
@@ -238,19 +389,16 @@ public class UserCount implements Analyzer {
         return userIds;
     }
 
-    private Long getUserId(String paramValue, String method) {
-        String userIdKey = Constant.METHOD_USER_KEY.get(method);
-        Long userId = null;
+    private Long getUserId(CharSequence paramValue, int methodId) {
+        JsonFieldExtractor extractor = methodId < userIdExtractors.length ? userIdExtractors[methodId] : null;
         try {
-            if (userIdKey != null) {
-                Map<String, Object> paramValueMap = gson.fromJson(paramValue, mapType);
-                userId = gson.toJsonTree(paramValueMap.get(userIdKey)).getAsLong();
-                return userId;
+            if (extractor != null && extractor.extract(paramValue)) {
+                return extractor.get(0);
             }
         } catch (Exception ex) {
             logger.error("", ex);
         }
-        return userId;
+        return null;
     }
 
     private long getUserCount(long time) {
@@ -0,0 +1,231 @@
+package log.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The sidecar index of an archived log file, kept next to it as
+ * <code>&lt;name&gt;.idx</code>: the first, smallest and largest timestamp,
+ * the line count, the size of the file it was built from and the offset of
+ * the first line of every hour (yyyyMMddHH).<br>
+ * As every line of an hour comes at or after the first line of that hour,
+ * the lines from some hour on all start at or after
+ * {@link #getOffset(long)}, even if hours interleave a little around their
+ * boundaries. An index whose size differs from the file is stale and is
+ * not used.
+ *
+ * @author sazzad
+ */
+public class ArchiveIndex {
+
+    public static final String SUFFIX = ".idx";
+
+    private static final String VERSION = "archive-index 1";
+    private static final int TIMESTAMP_LENGTH = 17;
+    private static final int HOUR_LENGTH = 10;
+
+    private long size;
+    private long lines;
+    private long first = -1L;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+    private final TreeMap<Long, Long> hourOffsets = new TreeMap<>();
+
+    private ArchiveIndex() {
+    }
+
+    public static File getIndexFile(File file) {
+        return new File(file.getParentFile(), file.getName() + SUFFIX);
+    }
+
+    public static boolean isIndexFile(File file) {
+        return file.getName().endsWith(SUFFIX);
+    }
+
+    /**
+     * Reads the file once and builds its index.
+     */
+    public static ArchiveIndex build(File file) throws IOException {
+        ArchiveIndex index = new ArchiveIndex();
+        try (MappedLineReader reader = new MappedLineReader(file)) {
+            ByteLine line;
+            while ((line = reader.readLine()) != null) {
+                ++index.lines;
+                long timestamp = parseTimestamp(line);
+                if (timestamp < 0L) {
+                    continue;
+                }
+                if (index.first < 0L) {
+                    index.first = timestamp;
+                }
+                index.min = Math.min(index.min, timestamp);
+                index.max = Math.max(index.max, timestamp);
+                Long hour = toHour(timestamp);
+                if (!index.hourOffsets.containsKey(hour)) {
+                    index.hourOffsets.put(hour, reader.getLineOffset());
+                }
+            }
+            index.size = reader.getPosition();
+        }
+        return index;
+    }
+
+    /**
+     * Builds the index of the file and writes it next to it.
+     */
+    public static ArchiveIndex write(File file) throws IOException {
+        ArchiveIndex index = build(file);
+        File indexFile = getIndexFile(file);
+        File tmpFile = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(tmpFile), StandardCharsets.US_ASCII))) {
+            writer.write(VERSION + "\n");
+            writer.write("size " + index.size + "\n");
+            writer.write("lines " + index.lines + "\n");
+            if (index.hasTimestamps()) {
+                writer.write("first " + index.first + "\n");
+                writer.write("min " + index.min + "\n");
+                writer.write("max " + index.max + "\n");
+            }
+            for (Map.Entry<Long, Long> entry : index.hourOffsets.entrySet()) {
+                writer.write("hour " + entry.getKey() + " " + entry.getValue() + "\n");
+            }
+        }
+        if (!tmpFile.renameTo(indexFile)) {
+            indexFile.delete();
+            if (!tmpFile.renameTo(indexFile)) {
+                throw new IOException("Cannot write \"" + indexFile.getAbsolutePath() + "\".");
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return the index of the file, or null if it has none or it does not
+     * match the file.
+     */
+    public static ArchiveIndex read(File file) throws IOException {
+        File indexFile = getIndexFile(file);
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        ArchiveIndex index = new ArchiveIndex();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(indexFile), StandardCharsets.US_ASCII))) {
+            if (!VERSION.equals(reader.readLine())) {
+                return null;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+                switch (parts[0]) {
+                    case "size":
+                        index.size = Long.parseLong(parts[1]);
+                        break;
+                    case "lines":
+                        index.lines = Long.parseLong(parts[1]);
+                        break;
+                    case "first":
+                        index.first = Long.parseLong(parts[1]);
+                        break;
+                    case "min":
+                        index.min = Long.parseLong(parts[1]);
+                        break;
+                    case "max":
+                        index.max = Long.parseLong(parts[1]);
+                        break;
+                    case "hour":
+                        index.hourOffsets.put(Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+            return null;
+        }
+        return index.size == file.length() ? index : null;
+    }
+
+    public boolean hasTimestamps() {
+        return first >= 0L;
+    }
+
+    /**
+     * @return the hour of the first line with a timestamp, -1 if none.
+     */
+    public long getFirstHour() {
+        return hasTimestamps() ? toHour(first) : -1L;
+    }
+
+    /**
+     * @return the latest hour of the file, -1 if it has no timestamps.
+     */
+    public long getMaxHour() {
+        return hasTimestamps() ? toHour(max) : -1L;
+    }
+
+    public long getMinTimestamp() {
+        return min;
+    }
+
+    public long getMaxTimestamp() {
+        return max;
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the offset from which on all lines of <code>hour</code> and
+     * later are found; the size of the file if there are none.
+     */
+    public long getOffset(long hour) {
+        long offset = size;
+        for (Long hourOffset : hourOffsets.tailMap(hour, true).values()) {
+            offset = Math.min(offset, hourOffset);
+        }
+        return offset;
+    }
+
+    /**
+     * @return the yyyyMMddHHmmssSSS the line starts with, -1 if it does not.
+     */
+    public static long parseTimestamp(CharSequence line) {
+        if (line.length() < TIMESTAMP_LENGTH) {
+            return -1L;
+        }
+        long timestamp = 0L;
+        for (int i = 0; i < TIMESTAMP_LENGTH; ++i) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1L;
+            }
+            timestamp = timestamp * 10 + (c - '0');
+        }
+        return timestamp;
+    }
+
+    static long toHour(long timestamp) {
+        long divisor = 1L;
+        for (int i = HOUR_LENGTH; i < TIMESTAMP_LENGTH; ++i) {
+            divisor *= 10;
+        }
+        return timestamp / divisor;
+    }
+}
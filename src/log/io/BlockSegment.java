@@ -0,0 +1,360 @@
+package log.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * An archived log file compressed in blocks: <code>&lt;name&gt;.seg</code>.
+ * <br>
+ * The lines are cut into blocks of about <code>blockSize</code> bytes at
+ * line boundaries (a longer line is a block of its own) and every block is
+ * deflated on its own, so a block can be read without the ones before it.
+ * The block index at the end of the file gives the place, size, line count
+ * and the first, smallest and largest timestamp of each block:
+ * <pre>
+ * block 0 .. block n-1
+ * int n, then per block: long offset, int compressed, int raw, long lines,
+ *                        long first, long min, long max (-1 if none)
+ * long index offset, int {@link #MAGIC}
+ * </pre>
+ * Lines are stored with a '\n' terminator; a '\r' before it is dropped.
+ *
+ * @author sazzad
+ */
+public class BlockSegment {
+
+    public static final String SUFFIX = ".seg";
+
+    private static final int MAGIC = 0x4C534731;
+    private static final int FOOTER_SIZE = 8 + 4;
+
+    private final File file;
+    private final List<Block> blocks;
+
+    private BlockSegment(File file, List<Block> blocks) {
+        this.file = file;
+        this.blocks = Collections.unmodifiableList(blocks);
+    }
+
+    public static boolean isSegmentFile(File file) {
+        return file.getName().endsWith(SUFFIX);
+    }
+
+    /**
+     * @return true if the segment of a plain file exists next to it. A
+     * crash between writing the segment and deleting the file leaves both;
+     * every line of the file is then in the segment.
+     */
+    public static boolean hasSegment(File file) {
+        return !isSegmentFile(file) && new File(file.getParentFile(), file.getName() + SUFFIX).isFile();
+    }
+
+    /**
+     * Compresses <code>source</code> into the segment <code>target</code>,
+     * which only appears once it is complete.
+     *
+     * @return the segment written
+     */
+    public static BlockSegment write(File source, File target, int blockSize) throws IOException {
+        File tmpFile = new File(target.getParentFile(), target.getName() + ".tmp");
+        List<Block> blocks = new ArrayList<>();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try (MappedLineReader reader = new MappedLineReader(source);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            byte[] raw = new byte[blockSize];
+            byte[] compressed = new byte[blockSize];
+            Block block = new Block();
+            int length = 0;
+            long offset = 0L;
+
+            ByteLine line;
+            while ((line = reader.readLine()) != null) {
+                int needed = line.length() + 1;
+                if (length > 0 && length + needed > raw.length) {
+                    offset += writeBlock(out, deflater, block, raw, length, offset, compressed);
+                    blocks.add(block);
+                    block = new Block();
+                    length = 0;
+                }
+                if (needed > raw.length) {
+                    // a line longer than a block is a block of its own
+                    Block single = new Block();
+                    single.add(ArchiveIndex.parseTimestamp(line));
+                    offset += writeBlock(out, deflater, single, copyLine(line, new byte[needed], 0), needed,
+                            offset, compressed);
+                    blocks.add(single);
+                    continue;
+                }
+                copyLine(line, raw, length);
+                length += needed;
+                block.add(ArchiveIndex.parseTimestamp(line));
+            }
+            if (length > 0) {
+                offset += writeBlock(out, deflater, block, raw, length, offset, compressed);
+                blocks.add(block);
+            }
+
+            out.writeInt(blocks.size());
+            for (Block b : blocks) {
+                out.writeLong(b.offset);
+                out.writeInt(b.compressedLength);
+                out.writeInt(b.rawLength);
+                out.writeLong(b.lines);
+                out.writeLong(b.first);
+                out.writeLong(b.hasTimestamps() ? b.min : -1L);
+                out.writeLong(b.hasTimestamps() ? b.max : -1L);
+            }
+            out.writeLong(offset);
+            out.writeInt(MAGIC);
+        } finally {
+            deflater.end();
+        }
+
+        if (!tmpFile.renameTo(target)) {
+            tmpFile.delete();
+            throw new IOException("Cannot write \"" + target.getAbsolutePath() + "\".");
+        }
+        return new BlockSegment(target, blocks);
+    }
+
+    private static int writeBlock(DataOutputStream out, Deflater deflater, Block block,
+            byte[] raw, int length, long offset, byte[] buffer) throws IOException {
+        deflater.reset();
+        deflater.setInput(raw, 0, length);
+        deflater.finish();
+        int compressed = 0;
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            out.write(buffer, 0, n);
+            compressed += n;
+        }
+        block.offset = offset;
+        block.compressedLength = compressed;
+        block.rawLength = length;
+        return compressed;
+    }
+
+    /**
+     * Copies the line and its '\n' to <code>bytes</code> at
+     * <code>start</code>.
+     */
+    private static byte[] copyLine(ByteLine line, byte[] bytes, int start) {
+        for (int i = 0; i < line.length(); ++i) {
+            bytes[start + i] = line.byteAt(i);
+        }
+        bytes[start + line.length()] = '\n';
+        return bytes;
+    }
+
+    /**
+     * Reads the block index of a segment.
+     */
+    public static BlockSegment open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long size = raf.length();
+            if (size < FOOTER_SIZE) {
+                throw new IOException("\"" + file.getAbsolutePath() + "\" is not a segment.");
+            }
+            raf.seek(size - FOOTER_SIZE);
+            long indexOffset = raf.readLong();
+            if (MAGIC != raf.readInt() || indexOffset < 0L || indexOffset > size - FOOTER_SIZE) {
+                throw new IOException("\"" + file.getAbsolutePath() + "\" is not a segment.");
+            }
+
+            byte[] index = new byte[(int) (size - FOOTER_SIZE - indexOffset)];
+            raf.seek(indexOffset);
+            raf.readFully(index);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(index));
+            int count = in.readInt();
+            List<Block> blocks = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i) {
+                Block block = new Block();
+                block.offset = in.readLong();
+                block.compressedLength = in.readInt();
+                block.rawLength = in.readInt();
+                block.lines = in.readLong();
+                block.first = in.readLong();
+                block.min = in.readLong();
+                block.max = in.readLong();
+                blocks.add(block);
+            }
+            return new BlockSegment(file, blocks);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public List<Block> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * @return the hour of the first line with a timestamp, -1 if none.
+     */
+    public long getFirstHour() {
+        for (Block block : blocks) {
+            if (block.hasTimestamps()) {
+                return block.getFirstHour();
+            }
+        }
+        return -1L;
+    }
+
+    /**
+     * @return the latest hour of the segment, -1 if it has no timestamps.
+     */
+    public long getMaxHour() {
+        long max = -1L;
+        for (Block block : blocks) {
+            max = Math.max(max, block.getMaxHour());
+        }
+        return max;
+    }
+
+    public long getRawSize() {
+        long size = 0L;
+        for (Block block : blocks) {
+            size += block.rawLength;
+        }
+        return size;
+    }
+
+    public long getCompressedSize() {
+        long size = 0L;
+        for (Block block : blocks) {
+            size += block.compressedLength;
+        }
+        return size;
+    }
+
+    /**
+     * Reads and inflates one block; safe to call from several threads.
+     */
+    public LineReader read(Block block) throws IOException {
+        byte[] compressed = new byte[block.compressedLength];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(block.offset);
+            raf.readFully(compressed);
+        }
+
+        byte[] raw = new byte[block.rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < raw.length && !inflater.finished()) {
+                int n = inflater.inflate(raw, length, raw.length - length);
+                if (0 == n && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != raw.length) {
+                throw new IOException("Block at " + block.offset + " of \"" + file.getAbsolutePath()
+                        + "\" is truncated.");
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Block at " + block.offset + " of \"" + file.getAbsolutePath()
+                    + "\" is corrupt.", ex);
+        } finally {
+            inflater.end();
+        }
+        return new LineReader(raw);
+    }
+
+    /**
+     * A block of a segment, with the lines and timestamps it holds.
+     */
+    public static class Block {
+
+        private long offset;
+        private int compressedLength;
+        private int rawLength;
+        private long lines;
+        private long first = -1L;
+        private long min = Long.MAX_VALUE;
+        private long max = Long.MIN_VALUE;
+
+        void add(long timestamp) {
+            ++lines;
+            if (timestamp < 0L) {
+                return;
+            }
+            if (first < 0L) {
+                first = timestamp;
+            }
+            min = Math.min(min, timestamp);
+            max = Math.max(max, timestamp);
+        }
+
+        public boolean hasTimestamps() {
+            return first >= 0L;
+        }
+
+        public long getFirstHour() {
+            return hasTimestamps() ? ArchiveIndex.toHour(first) : -1L;
+        }
+
+        public long getMaxHour() {
+            return hasTimestamps() ? ArchiveIndex.toHour(max) : -1L;
+        }
+
+        public int getCompressedLength() {
+            return compressedLength;
+        }
+
+        public int getRawLength() {
+            return rawLength;
+        }
+
+        public long getLines() {
+            return lines;
+        }
+    }
+
+    /**
+     * The lines of an inflated block, each returned as a {@link ByteLine}
+     * over the block, which is reused by the next call.
+     */
+    public static class LineReader {
+
+        private final ByteBuffer buffer;
+        private final byte[] bytes;
+        private final ByteLine line = new ByteLine();
+        private int position;
+
+        LineReader(byte[] bytes) {
+            this.bytes = bytes;
+            this.buffer = ByteBuffer.wrap(bytes);
+        }
+
+        public ByteLine readLine() {
+            if (position >= bytes.length) {
+                return null;
+            }
+            int start = position;
+            int end = start;
+            while (end < bytes.length && bytes[end] != '\n') {
+                ++end;
+            }
+            position = end + 1;
+            line.set(buffer, start, end - start);
+            return line;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package log.io;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A line of a log file viewed in place, without decoding.<br>
+ * {@link #charAt(int)} returns one char per byte, which is exact for the
+ * ASCII prefix of our log lines, and lets the tokenizer work on byte offsets.
+ * Only {@link #toString()} decodes UTF-8, so a sub-sequence (e.g. the
+ * parameter part of a request line) is decoded only when an analyzer really
+ * needs it as a String.
+ *
+ * @author sazzad
+ */
+public class ByteLine implements CharSequence {
+
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+
+    public ByteLine() {
+    }
+
+    public ByteLine(ByteBuffer buffer, int offset, int length) {
+        set(buffer, offset, length);
+    }
+
+    final void set(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (byteAt(index) & 0xFF);
+    }
+
+    public byte byteAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + length);
+        }
+        return buffer.get(offset + index);
+    }
+
+    @Override
+    public ByteLine subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + length);
+        }
+        return new ByteLine(buffer, offset + start, end - start);
+    }
+
+    /**
+     * @return a copy of the bytes of the line.
+     */
+    public byte[] toBytes() {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return the line decoded as UTF-8.
+     */
+    @Override
+    public String toString() {
+        return new String(toBytes(), StandardCharsets.UTF_8);
+    }
+}
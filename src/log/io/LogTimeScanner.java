@@ -0,0 +1,113 @@
+package log.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * Finds the days a log file spans without reading all of it: only the first
+ * and the last {@link #PROBE_SIZE} bytes are read, and the smallest and the
+ * largest yyyyMMdd of the lines found there bound the range.<br>
+ * Lines are written in time order, give or take the interleaving around
+ * midnight, so the range covers every line of the file.
+ *
+ * @author sazzad
+ */
+public class LogTimeScanner {
+
+    static final int PROBE_SIZE = 64 * 1024;
+    static final int MAX_DAYS = 31;
+
+    private static final int DAY_LENGTH = 8;
+    private static final int TIMESTAMP_LENGTH = 17;
+
+    /**
+     * @return the days (yyyyMMdd) from the first to the last one found, at
+     * most {@link #MAX_DAYS}; empty if no line starts with a timestamp.
+     */
+    public static List<Long> scanDays(File file) throws IOException {
+        long[] range = {Long.MAX_VALUE, Long.MIN_VALUE};
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long length = raf.length();
+            probe(raf, 0L, (int) Math.min(length, PROBE_SIZE), range);
+            if (length > PROBE_SIZE) {
+                long start = Math.max(PROBE_SIZE, length - PROBE_SIZE);
+                probe(raf, start, (int) (length - start), range);
+            }
+        }
+
+        List<Long> days = new ArrayList<>();
+        if (range[0] > range[1]) {
+            return days;
+        }
+        try {
+            SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd");
+            format.setLenient(false);
+            Calendar cal = Calendar.getInstance();
+            cal.setTime(format.parse(Long.toString(range[0])));
+            long day = range[0];
+            while (day <= range[1] && days.size() < MAX_DAYS) {
+                days.add(day);
+                cal.add(Calendar.DATE, 1);
+                day = Long.parseLong(format.format(cal.getTime()));
+            }
+        } catch (ParseException | NumberFormatException ex) {
+            days.clear();
+        }
+        return days;
+    }
+
+    private static void probe(RandomAccessFile raf, long offset, int length, long[] range) throws IOException {
+        byte[] bytes = new byte[length];
+        raf.seek(offset);
+        raf.readFully(bytes);
+
+        // the first line of a probe that does not start the file may be cut
+        int lineStart = 0;
+        if (0L != offset) {
+            int newline = indexOf(bytes, (byte) '\n', 0);
+            if (newline < 0) {
+                return;
+            }
+            lineStart = newline + 1;
+        }
+        while (lineStart < length) {
+            if (lineStart + TIMESTAMP_LENGTH <= length && isTimestamp(bytes, lineStart)) {
+                long day = 0L;
+                for (int i = lineStart; i < lineStart + DAY_LENGTH; ++i) {
+                    day = day * 10 + (bytes[i] - '0');
+                }
+                range[0] = Math.min(range[0], day);
+                range[1] = Math.max(range[1], day);
+            }
+            int newline = indexOf(bytes, (byte) '\n', lineStart);
+            if (newline < 0) {
+                break;
+            }
+            lineStart = newline + 1;
+        }
+    }
+
+    private static boolean isTimestamp(byte[] bytes, int start) {
+        for (int i = start; i < start + TIMESTAMP_LENGTH; ++i) {
+            if (bytes[i] < '0' || bytes[i] > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] bytes, byte b, int from) {
+        for (int i = from; i < bytes.length; ++i) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
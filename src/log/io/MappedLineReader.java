@@ -0,0 +1,230 @@
+package log.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the lines of a file through {@link FileChannel#map}, splitting them
+ * on '\n' bytes (a '\r' before it is dropped).<br>
+ * The file is mapped in segments of at most {@link #DEFAULT_SEGMENT_SIZE}
+ * bytes, so files over 2 GB are read segment by segment; a line crossing the
+ * end of a segment starts the next one. Each line is returned as a
+ * {@link ByteLine} over the mapping, which is reused by the next call.
+ *
+ * @author sazzad
+ */
+public class MappedLineReader implements Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 256 * 1024 * 1024;
+
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long end;
+    private final int segmentSize;
+    private final ByteLine line = new ByteLine();
+
+    private MappedByteBuffer segment;
+    private long segmentStart;
+    private int position;
+    private long lineOffset = -1L;
+
+    public MappedLineReader(File file) throws IOException {
+        this(file, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public MappedLineReader(File file, int segmentSize) throws IOException {
+        this(file, 0L, -1L, segmentSize);
+    }
+
+    /**
+     * Reads the lines in [start, end) only.
+     *
+     * @param start the first byte of a line, e.g. from
+     * {@link #splitAtLines(File, long)}
+     * @param end the byte after a line terminator, or -1 for the end of the
+     * file
+     */
+    public MappedLineReader(File file, long start, long end, int segmentSize) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.end = end < 0L ? channel.size() : Math.min(end, channel.size());
+        this.segmentSize = segmentSize;
+        map(Math.min(start, this.end), 0);
+    }
+
+    /**
+     * Splits a file into ranges of about <code>chunkSize</code> bytes that
+     * start and end at line boundaries.
+     *
+     * @return the boundaries, from 0 to the file size; range i is
+     * [boundaries[i], boundaries[i + 1]).
+     */
+    public static long[] splitAtLines(File file, long chunkSize) throws IOException {
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long size = raf.length();
+            byte[] buffer = new byte[8 * 1024];
+            long target = chunkSize;
+            while (target < size) {
+                // the range ends after the first '\n' at or past the target
+                long boundary = size;
+                raf.seek(target - 1);
+                for (long offset = target - 1; offset < size;) {
+                    int read = raf.read(buffer);
+                    if (read < 0) {
+                        break;
+                    }
+                    int lf = indexOf(buffer, read, LF);
+                    if (lf >= 0) {
+                        boundary = offset + lf + 1;
+                        break;
+                    }
+                    offset += read;
+                }
+                if (boundary >= size) {
+                    break;
+                }
+                boundaries.add(boundary);
+                target = boundary + chunkSize;
+            }
+            boundaries.add(size);
+        }
+
+        long[] result = new long[boundaries.size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = boundaries.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Finds where the complete lines of a file still being written end.
+     *
+     * @return the offset after the last '\n' at or after <code>from</code>,
+     * or <code>from</code> if there is none.
+     */
+    public static long completeLinesEnd(File file, long from) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] buffer = new byte[8 * 1024];
+            long end = raf.length();
+            while (end > from) {
+                int length = (int) Math.min(buffer.length, end - from);
+                long start = end - length;
+                raf.seek(start);
+                raf.readFully(buffer, 0, length);
+                for (int i = length - 1; i >= 0; --i) {
+                    if (buffer[i] == LF) {
+                        return start + i + 1;
+                    }
+                }
+                end = start;
+            }
+        }
+        return from;
+    }
+
+    private static int indexOf(byte[] bytes, int length, byte b) {
+        for (int i = 0; i < length; ++i) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the next line without its terminator, or null at the end of
+     * the file. The returned object is only valid until the next call.
+     * @throws IOException
+     */
+    public ByteLine readLine() throws IOException {
+        while (true) {
+            int limit = segment.limit();
+            for (int i = position; i < limit; ++i) {
+                if (segment.get(i) == LF) {
+                    return setLine(position, i, i + 1);
+                }
+            }
+
+            if (segmentStart + limit >= end) {
+                return position < limit ? setLine(position, limit, limit) : null;
+            }
+
+            // the line continues past this segment; remap from its first byte
+            int minSize = limit - position;
+            map(segmentStart + position, minSize == limit ? grow(limit) : 0);
+        }
+    }
+
+    /**
+     * @return the file offset of the first byte of the last line read.
+     */
+    public long getLineOffset() {
+        return lineOffset;
+    }
+
+    /**
+     * @return the file offset just after the last line read, including its
+     * terminator.
+     */
+    public long getPosition() {
+        return segmentStart + position;
+    }
+
+    /**
+     * Reads the pages of the current segment into memory, so the lines can
+     * be parsed without waiting on the disk.
+     */
+    public void prefetch() {
+        segment.load();
+    }
+
+    public long getSize() {
+        return end;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // the mapping itself is released when the buffer is collected
+        segment = null;
+        file.close();
+    }
+
+    private ByteLine setLine(int start, int stop, int next) {
+        int length = stop - start;
+        if (length > 0 && segment.get(stop - 1) == CR) {
+            --length;
+        }
+        line.set(segment, start, length);
+        lineOffset = segmentStart + start;
+        position = next;
+        return line;
+    }
+
+    private void map(long start, int minSize) throws IOException {
+        long size = Math.min(Math.max(segmentSize, minSize), end - start);
+        segment = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        segmentStart = start;
+        position = 0;
+    }
+
+    private static int grow(int size) throws IOException {
+        if (size >= Integer.MAX_VALUE / 2) {
+            if (size == Integer.MAX_VALUE) {
+                throw new IOException("A line is longer than " + Integer.MAX_VALUE + " bytes.");
+            }
+            return Integer.MAX_VALUE;
+        }
+        return size * 2;
+    }
+}
@@ -0,0 +1,120 @@
+package log.parser;
+
+/**
+ * Reads the media summary of an addStatus request without binding the feed:
+ * the <code>contentType</code> of <code>feedDTO</code> and the number of
+ * elements of its album's <code>imgDTOs</code> and <code>mDTOs</code>
+ * arrays.<br>
+ * The JSON keys are the field names Gson uses for
+ * <code>org.ringid.newsfeeds.FeedDTO</code> and <code>CassAlbumDTO</code>.
+ * Array elements are counted, not parsed.
+ *
+ * @author sazzad
+ */
+public class FeedMediaDecoder {
+
+    private static final String FEED_DTO = "feedDTO";
+    private static final String CONTENT_TYPE = "contentType";
+    private static final String ALBUM_DTO = "albumDTO";
+    private static final String IMG_DTOS = "imgDTOs";
+    private static final String MULTI_MEDIA_DTOS = "mDTOs";
+
+    private final JsonCursor cursor = new JsonCursor();
+
+    private int contentType;
+    private boolean album;
+    private int imageCount;
+    private int multiMediaCount;
+
+    /**
+     * @param params the parameter part of an addStatus request.
+     * @return false if there is no feedDTO object.
+     * @throws com.google.gson.JsonSyntaxException for malformed input.
+     */
+    public boolean decode(CharSequence params) {
+        contentType = 0;
+        album = false;
+        imageCount = -1;
+        multiMediaCount = -1;
+
+        cursor.reset(params);
+        cursor.beginObject();
+        while (cursor.nextKey()) {
+            if (cursor.keyEquals(FEED_DTO)) {
+                if (cursor.nextNull()) {
+                    return false;
+                }
+                readFeed();
+                return true;
+            }
+            cursor.skipValue();
+        }
+        return false;
+    }
+
+    public int getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return true if the feed has a non-null albumDTO.
+     */
+    public boolean hasAlbum() {
+        return album;
+    }
+
+    /**
+     * @return true if the album has a non-null imgDTOs array.
+     */
+    public boolean hasImages() {
+        return imageCount >= 0;
+    }
+
+    public int getImageCount() {
+        return Math.max(imageCount, 0);
+    }
+
+    /**
+     * @return true if the album has a non-null mDTOs array.
+     */
+    public boolean hasMultiMedia() {
+        return multiMediaCount >= 0;
+    }
+
+    public int getMultiMediaCount() {
+        return Math.max(multiMediaCount, 0);
+    }
+
+    private void readFeed() {
+        cursor.beginObject();
+        while (cursor.nextKey()) {
+            if (cursor.keyEquals(CONTENT_TYPE)) {
+                contentType = cursor.nextNull() ? 0 : (int) cursor.nextLong();
+            } else if (cursor.keyEquals(ALBUM_DTO)) {
+                if (!cursor.nextNull()) {
+                    readAlbum();
+                }
+            } else {
+                cursor.skipValue();
+            }
+        }
+    }
+
+    private void readAlbum() {
+        album = true;
+        cursor.beginObject();
+        while (cursor.nextKey()) {
+            if (cursor.keyEquals(IMG_DTOS)) {
+                if (!cursor.nextNull()) {
+                    imageCount = cursor.countArray();
+                }
+            } else if (cursor.keyEquals(MULTI_MEDIA_DTOS)) {
+                if (!cursor.nextNull()) {
+                    multiMediaCount = cursor.countArray();
+                }
+            } else {
+                cursor.skipValue();
+            }
+        }
+    }
+}
@@ -0,0 +1,427 @@
+package log.parser;
+
+import com.google.gson.JsonSyntaxException;
+import java.math.BigDecimal;
+
+/**
+ * A forward-only JSON scanner over a {@link CharSequence} span.<br>
+ * It reads keys and scalar values in place and skips everything it is not
+ * asked for, without building a tree or allocating strings for keys. It is
+ * meant for pulling a few known fields out of the parameter part of a log
+ * line; it does not validate the parts it skips.<br>
+ * Malformed input is reported with {@link JsonSyntaxException}, as Gson does.
+ *
+ * @author sazzad
+ */
+public class JsonCursor {
+
+    private CharSequence text;
+    private int pos;
+    private int end;
+
+    private int keyStart;
+    private int keyEnd;
+
+    public JsonCursor reset(CharSequence text) {
+        return reset(text, 0, text.length());
+    }
+
+    public JsonCursor reset(CharSequence text, int start, int end) {
+        this.text = text;
+        this.pos = start;
+        this.end = end;
+        this.keyStart = -1;
+        this.keyEnd = -1;
+        return this;
+    }
+
+    /**
+     * @return the next non-blank character without consuming it, or -1 at
+     * the end of the input.
+     */
+    public int peek() {
+        skipBlank();
+        return pos < end ? text.charAt(pos) : -1;
+    }
+
+    public void beginObject() {
+        expect('{');
+    }
+
+    public void beginArray() {
+        expect('[');
+    }
+
+    /**
+     * Moves to the next member of the current object.
+     *
+     * @return false, after consuming the closing '}', if there are no more
+     * members; otherwise the key is available to {@link #keyEquals(String)}
+     * and the cursor is on its value.
+     */
+    public boolean nextKey() {
+        skipBlank();
+        if (pos < end && text.charAt(pos) == ',') {
+            ++pos;
+            skipBlank();
+        }
+        if (pos < end && text.charAt(pos) == '}') {
+            ++pos;
+            return false;
+        }
+        expect('"');
+        keyStart = pos;
+        keyEnd = skipStringBody();
+        expect(':');
+        return true;
+    }
+
+    /**
+     * Moves to the next element of the current array.
+     *
+     * @return false, after consuming the closing ']', if there are no more
+     * elements.
+     */
+    public boolean nextElement() {
+        skipBlank();
+        if (pos < end && text.charAt(pos) == ',') {
+            ++pos;
+            skipBlank();
+        }
+        if (pos < end && text.charAt(pos) == ']') {
+            ++pos;
+            return false;
+        }
+        if (pos >= end) {
+            throw error("unterminated array");
+        }
+        return true;
+    }
+
+    /**
+     * Compares the raw key with a name. Keys containing escapes never match.
+     */
+    public boolean keyEquals(String name) {
+        int length = keyEnd - keyStart;
+        if (length != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (text.charAt(keyStart + i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getKeyStart() {
+        return keyStart;
+    }
+
+    public int getKeyEnd() {
+        return keyEnd;
+    }
+
+    public CharSequence getText() {
+        return text;
+    }
+
+    /**
+     * Consumes a null literal if the next value is one.
+     *
+     * @return true if a null was consumed.
+     */
+    public boolean nextNull() {
+        if (peek() == 'n') {
+            expectLiteral("null");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads a number, or a string holding a number, as an exact long.
+     * Fractions and exponents are truncated, as Gson's getAsLong does.
+     */
+    public long nextLong() {
+        int c = peek();
+        if (c == '"') {
+            ++pos;
+            int start = pos;
+            int stop = skipStringBody();
+            return parseLong(start, stop);
+        }
+        int start = pos;
+        int stop = skipNumber();
+        return parseLong(start, stop);
+    }
+
+    public double nextDouble() {
+        int c = peek();
+        int start, stop;
+        if (c == '"') {
+            ++pos;
+            start = pos;
+            stop = skipStringBody();
+        } else {
+            start = pos;
+            stop = skipNumber();
+        }
+        try {
+            return Double.parseDouble(text.subSequence(start, stop).toString());
+        } catch (NumberFormatException ex) {
+            throw error("not a number");
+        }
+    }
+
+    public boolean nextBoolean() {
+        int c = peek();
+        if (c == 't') {
+            expectLiteral("true");
+            return true;
+        }
+        if (c == 'f') {
+            expectLiteral("false");
+            return false;
+        }
+        throw error("not a boolean");
+    }
+
+    /**
+     * @return a string value with its escapes resolved; other scalars are
+     * returned as their literal text.
+     */
+    public String nextString() {
+        int c = peek();
+        if (c != '"') {
+            int start = pos;
+            skipValue();
+            return text.subSequence(start, pos).toString();
+        }
+        ++pos;
+        int start = pos;
+        int stop = skipStringBody();
+        return unescape(start, stop);
+    }
+
+    /**
+     * @return the unparsed text of the next value, objects and arrays
+     * included.
+     */
+    public CharSequence nextRaw() {
+        skipBlank();
+        int start = pos;
+        skipValue();
+        return text.subSequence(start, pos);
+    }
+
+    /**
+     * Consumes an array and counts its elements without looking into them.
+     */
+    public int countArray() {
+        beginArray();
+        int count = 0;
+        while (nextElement()) {
+            skipValue();
+            ++count;
+        }
+        return count;
+    }
+
+    /**
+     * Skips the next value, whatever its type.
+     */
+    public void skipValue() {
+        int c = peek();
+        switch (c) {
+        case '"':
+            ++pos;
+            skipStringBody();
+            return;
+        case '{':
+        case '[':
+            skipContainer();
+            return;
+        case 't':
+            expectLiteral("true");
+            return;
+        case 'f':
+            expectLiteral("false");
+            return;
+        case 'n':
+            expectLiteral("null");
+            return;
+        case -1:
+            throw error("value expected");
+        default:
+            skipNumber();
+        }
+    }
+
+    private void skipContainer() {
+        int depth = 0;
+        while (pos < end) {
+            char c = text.charAt(pos++);
+            if (c == '"') {
+                skipStringBody();
+            } else if (c == '{' || c == '[') {
+                ++depth;
+            } else if (c == '}' || c == ']') {
+                if (--depth == 0) {
+                    return;
+                }
+            }
+        }
+        throw error("unterminated container");
+    }
+
+    /**
+     * @return the end of the string body; the cursor is moved past the
+     * closing quote.
+     */
+    private int skipStringBody() {
+        while (pos < end) {
+            char c = text.charAt(pos);
+            if (c == '"') {
+                return pos++;
+            }
+            pos += (c == '\\') ? 2 : 1;
+        }
+        throw error("unterminated string");
+    }
+
+    private int skipNumber() {
+        int start = pos;
+        while (pos < end) {
+            char c = text.charAt(pos);
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                ++pos;
+            } else {
+                break;
+            }
+        }
+        if (pos == start) {
+            throw error("value expected");
+        }
+        return pos;
+    }
+
+    private long parseLong(int start, int stop) {
+        int i = start;
+        boolean negative = i < stop && text.charAt(i) == '-';
+        if (negative) {
+            ++i;
+        }
+        if (i == stop) {
+            throw error("not a number");
+        }
+
+        long value = 0L;
+        for (; i < stop; ++i) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9' || value > (Long.MAX_VALUE - 9L) / 10L) {
+                return parseDecimal(start, stop);
+            }
+            value = value * 10L + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    private long parseDecimal(int start, int stop) {
+        try {
+            return new BigDecimal(text.subSequence(start, stop).toString()).longValue();
+        } catch (NumberFormatException ex) {
+            throw error("not a number");
+        }
+    }
+
+    private String unescape(int start, int stop) {
+        StringBuilder sb = null;
+        int run = start;
+        int i = start;
+        while (i < stop) {
+            if (text.charAt(i) != '\\') {
+                ++i;
+                continue;
+            }
+            if (null == sb) {
+                sb = new StringBuilder(stop - start);
+            }
+            // decode plain runs through the sequence, which may be UTF-8 bytes
+            sb.append(text.subSequence(run, i).toString());
+            if (i + 1 >= stop) {
+                throw error("bad escape");
+            }
+            char e = text.charAt(i + 1);
+            i += 2;
+            switch (e) {
+            case 'b':
+                sb.append('\b');
+                break;
+            case 'f':
+                sb.append('\f');
+                break;
+            case 'n':
+                sb.append('\n');
+                break;
+            case 'r':
+                sb.append('\r');
+                break;
+            case 't':
+                sb.append('\t');
+                break;
+            case 'u':
+                if (i + 4 > stop) {
+                    throw error("bad escape");
+                }
+                try {
+                    sb.append((char) Integer.parseInt(text.subSequence(i, i + 4).toString(), 16));
+                } catch (NumberFormatException ex) {
+                    throw error("bad escape");
+                }
+                i += 4;
+                break;
+            default:
+                sb.append(e);
+            }
+            run = i;
+        }
+        String tail = text.subSequence(run, stop).toString();
+        return null == sb ? tail : sb.append(tail).toString();
+    }
+
+    private void expect(char c) {
+        skipBlank();
+        if (pos >= end || text.charAt(pos) != c) {
+            throw error("'" + c + "' expected");
+        }
+        ++pos;
+    }
+
+    private void expectLiteral(String literal) {
+        if (pos + literal.length() > end) {
+            throw error(literal + " expected");
+        }
+        for (int i = 0; i < literal.length(); ++i) {
+            if (text.charAt(pos + i) != literal.charAt(i)) {
+                throw error(literal + " expected");
+            }
+        }
+        pos += literal.length();
+    }
+
+    private void skipBlank() {
+        while (pos < end) {
+            char c = text.charAt(pos);
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                ++pos;
+            } else {
+                break;
+            }
+        }
+    }
+
+    private JsonSyntaxException error(String reason) {
+        return new JsonSyntaxException("Malformed JSON at offset " + pos + ": " + reason);
+    }
+}
@@ -0,0 +1,89 @@
+package log.parser;
+
+/**
+ * Pulls a fixed set of top-level numeric fields out of a JSON object as exact
+ * longs, skipping everything else.<br>
+ * Unlike a Gson map, ids above 2^53 keep their precision, and no tree or key
+ * strings are built. Scanning stops as soon as every field is found. A field
+ * whose value is null, or not a number or a numeric string, counts as
+ * missing.
+ *
+ * @author sazzad
+ */
+public class JsonFieldExtractor {
+
+    private final String[] keys;
+    private final long[] values;
+    private final boolean[] found;
+    private final JsonCursor cursor = new JsonCursor();
+
+    public JsonFieldExtractor(String... keys) {
+        this.keys = keys.clone();
+        this.values = new long[keys.length];
+        this.found = new boolean[keys.length];
+    }
+
+    /**
+     * @param json
+     * @return true if at least one of the fields was found.
+     * @throws com.google.gson.JsonSyntaxException if the object is malformed
+     * before the last wanted field.
+     */
+    public boolean extract(CharSequence json) {
+        int remaining = keys.length;
+        for (int i = 0; i < keys.length; ++i) {
+            found[i] = false;
+            values[i] = 0L;
+        }
+
+        cursor.reset(json);
+        cursor.beginObject();
+        while (remaining > 0 && cursor.nextKey()) {
+            int index = indexOfKey();
+            if (index < 0 || found[index]) {
+                cursor.skipValue();
+                continue;
+            }
+
+            int c = cursor.peek();
+            if (c == '"' || c == '-' || (c >= '0' && c <= '9')) {
+                try {
+                    values[index] = cursor.nextLong();
+                    found[index] = true;
+                    --remaining;
+                } catch (RuntimeException ex) {
+                    // a non numeric string; treat the field as missing
+                }
+            } else {
+                cursor.skipValue();
+            }
+        }
+        return remaining < keys.length;
+    }
+
+    public int indexOf(String key) {
+        for (int i = 0; i < keys.length; ++i) {
+            if (keys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean has(int index) {
+        return found[index];
+    }
+
+    public long get(int index) {
+        return values[index];
+    }
+
+    private int indexOfKey() {
+        for (int i = 0; i < keys.length; ++i) {
+            if (cursor.keyEquals(keys[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
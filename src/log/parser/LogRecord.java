@@ -0,0 +1,168 @@
+package log.parser;
+
+/**
+ * One log line split into its prefix fields by {@link LogTokenizer}.<br>
+ * A record only keeps offsets into the line it was built from, so the same
+ * instance is reused for every line of a file. Analyzers must not keep a
+ * reference to a record, or to a sequence returned by it, after
+ * {@code processRecord} returns.
+ *
+ * @author sazzad
+ */
+public class LogRecord {
+
+    public static final String FATAL = "FATAL";
+    public static final String ERROR = "ERROR";
+    public static final String WARN = "WARN";
+    public static final String INFO = "INFO";
+    public static final String DEBUG = "DEBUG";
+    public static final String TRACE = "TRACE";
+
+    CharSequence line;
+    long timestamp;
+    String level;
+    int messageStart;
+    boolean request;
+    int methodStart;
+    int methodEnd;
+    int paramStart;
+
+    private String method;
+    private int methodId;
+
+    void reset(CharSequence line) {
+        this.line = line;
+        this.timestamp = 0L;
+        this.level = null;
+        this.messageStart = -1;
+        this.request = false;
+        this.methodStart = -1;
+        this.methodEnd = -1;
+        this.paramStart = -1;
+        this.method = null;
+        this.methodId = -1;
+    }
+
+    public CharSequence getLine() {
+        return line;
+    }
+
+    /**
+     * @return the leading 17 digits of the line (yyyyMMddHHmmssSSS).
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getTimestampString() {
+        return line.subSequence(0, LogTokenizer.TIMESTAMP_LENGTH).toString();
+    }
+
+    /**
+     * @return the first 10 digits of the timestamp (yyyyMMddHH).
+     */
+    public long getHour() {
+        return timestamp / 10000000L;
+    }
+
+    /**
+     * @return the first 8 digits of the timestamp (yyyyMMdd).
+     */
+    public long getDay() {
+        return timestamp / 1000000000L;
+    }
+
+    /**
+     * @return the log level. Well known levels are returned as the constants
+     * of this class, so they may be compared by reference.
+     */
+    public String getLevel() {
+        return level;
+    }
+
+    public boolean isLevel(String level) {
+        return this.level.equals(level);
+    }
+
+    /**
+     * @return the offset of the message in {@link #getLine()}.
+     */
+    public int getMessageStart() {
+        return messageStart;
+    }
+
+    public CharSequence getMessage() {
+        return line.subSequence(messageStart, line.length());
+    }
+
+    public boolean messageStartsWith(String prefix) {
+        return regionMatches(messageStart, prefix);
+    }
+
+    /**
+     * @return true for "INFO - R &lt;id&gt; &lt;method&gt; ..." request lines.
+     */
+    public boolean isRequest() {
+        return request;
+    }
+
+    public String getMethod() {
+        if (null == method && request) {
+            method = line.subSequence(methodStart, methodEnd).toString();
+        }
+        return method;
+    }
+
+    /**
+     * @return the id of the method in the shared {@link MethodDictionary}, or
+     * -1 for a non-request line.
+     */
+    public int getMethodId() {
+        if (methodId < 0 && request) {
+            methodId = MethodDictionary.getInstance().idOf(line, methodStart, methodEnd);
+        }
+        return methodId;
+    }
+
+    public int getMethodStart() {
+        return methodStart;
+    }
+
+    public int getMethodEnd() {
+        return methodEnd;
+    }
+
+    public boolean isMethod(String name) {
+        return request
+                && methodEnd - methodStart == name.length()
+                && regionMatches(methodStart, name);
+    }
+
+    /**
+     * @return true when a request line carries a " - &lt;parameters&gt;" part
+     * after the method name.
+     */
+    public boolean hasParams() {
+        return paramStart >= 0;
+    }
+
+    public int getParamStart() {
+        return paramStart;
+    }
+
+    public CharSequence getParams() {
+        return hasParams() ? line.subSequence(paramStart, line.length()) : null;
+    }
+
+    private boolean regionMatches(int offset, String str) {
+        if (offset < 0 || offset + str.length() > line.length()) {
+            return false;
+        }
+        for (int i = 0; i < str.length(); ++i) {
+            if (line.charAt(offset + i) != str.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,159 @@
+package log.parser;
+
+/**
+ * Splits a log line into a {@link LogRecord} in a single left-to-right scan.
+ * <br>
+ * The recognized layout is the one the analyzers used to match with their own
+ * regular expressions:<br>
+ * &nbsp;- <code>^(\d{17})\s+([A-Z]{4,5})\s+(.*)$</code> for every line<br>
+ * &nbsp;- <code>INFO - R \S+ (\w+) (- (.*))?</code> for request lines<br>
+ *
+ * @author sazzad
+ */
+public class LogTokenizer {
+
+    public static final int TIMESTAMP_LENGTH = 17;
+
+    private static final String REQUEST_MARKER = "- R ";
+    private static final String PARAM_SEPARATOR = " - ";
+
+    private static final String[] KNOWN_LEVELS = {LogRecord.INFO, LogRecord.WARN,
+        LogRecord.ERROR, LogRecord.FATAL, LogRecord.DEBUG, LogRecord.TRACE};
+
+    /**
+     * Convenience for callers outside the main read loop.
+     *
+     * @param line
+     * @return a new record, or null if the line is not a log line.
+     */
+    public static LogRecord parse(CharSequence line) {
+        LogRecord record = new LogRecord();
+        return new LogTokenizer().tokenize(line, record) ? record : null;
+    }
+
+    /**
+     * @param line
+     * @param record reset and filled from the line.
+     * @return false if the line does not start with a timestamp and a level.
+     */
+    public boolean tokenize(CharSequence line, LogRecord record) {
+        record.reset(line);
+        int len = line.length();
+        if (len <= TIMESTAMP_LENGTH) {
+            return false;
+        }
+
+        long timestamp = 0L;
+        for (int i = 0; i < TIMESTAMP_LENGTH; ++i) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+            timestamp = timestamp * 10L + (c - '0');
+        }
+
+        int pos = TIMESTAMP_LENGTH;
+        if (!isWhitespace(line.charAt(pos))) {
+            return false;
+        }
+        pos = skipWhitespace(line, pos);
+
+        int levelStart = pos;
+        while (pos < len && isUpperCase(line.charAt(pos))) {
+            ++pos;
+        }
+        int levelEnd = pos;
+        int levelLength = levelEnd - levelStart;
+        if (levelLength < 4 || levelLength > 5 || pos >= len || !isWhitespace(line.charAt(pos))) {
+            return false;
+        }
+
+        record.timestamp = timestamp;
+        record.level = toLevel(line, levelStart, levelEnd);
+        record.messageStart = skipWhitespace(line, levelEnd);
+
+        if (LogRecord.INFO == record.level && record.messageStart == levelEnd + 1 && line.charAt(levelEnd) == ' ') {
+            tokenizeRequest(line, record);
+        }
+        return true;
+    }
+
+    private void tokenizeRequest(CharSequence line, LogRecord record) {
+        int len = line.length();
+        int pos = record.messageStart;
+        if (!startsWith(line, pos, REQUEST_MARKER)) {
+            return;
+        }
+
+        pos += REQUEST_MARKER.length();
+        int idStart = pos;
+        while (pos < len && !isWhitespace(line.charAt(pos))) {
+            ++pos;
+        }
+        if (pos == idStart || pos >= len || line.charAt(pos) != ' ') {
+            return;
+        }
+
+        int methodStart = ++pos;
+        while (pos < len && isWordChar(line.charAt(pos))) {
+            ++pos;
+        }
+        if (pos == methodStart || pos >= len || line.charAt(pos) != ' ') {
+            return;
+        }
+
+        record.request = true;
+        record.methodStart = methodStart;
+        record.methodEnd = pos;
+        if (startsWith(line, pos, PARAM_SEPARATOR)) {
+            record.paramStart = pos + PARAM_SEPARATOR.length();
+        }
+    }
+
+    private static String toLevel(CharSequence line, int start, int end) {
+        for (String level : KNOWN_LEVELS) {
+            if (level.length() == end - start && startsWith(line, start, level)) {
+                return level;
+            }
+        }
+        return line.subSequence(start, end).toString();
+    }
+
+    private static boolean startsWith(CharSequence line, int offset, String str) {
+        if (offset + str.length() > line.length()) {
+            return false;
+        }
+        for (int i = 0; i < str.length(); ++i) {
+            if (line.charAt(offset + i) != str.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int skipWhitespace(CharSequence line, int pos) {
+        int len = line.length();
+        while (pos < len && isWhitespace(line.charAt(pos))) {
+            ++pos;
+        }
+        return pos;
+    }
+
+    /**
+     * Same set as the regular expression class <code>\s</code>.
+     */
+    static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    static boolean isUpperCase(char c) {
+        return c >= 'A' && c <= 'Z';
+    }
+
+    /**
+     * Same set as the regular expression class <code>\w</code>.
+     */
+    static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+}
@@ -0,0 +1,172 @@
+package log.parser;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Interns request method names to stable int ids.<br>
+ * {@link #idOf(CharSequence, int, int)} hashes the method span of the line in
+ * place and compares it char by char, so a known method is resolved without
+ * building a String. Ids are dense, start at 0 and never change; unseen
+ * methods get the next id.
+ * <br>
+ * Lookups read an immutable snapshot and take no lock; an unseen method
+ * copies the snapshot under the lock, which is rare once the dictionary is
+ * loaded from analytics_activity_method_map. The span chars of a
+ * {@link log.io.ByteLine} are its bytes, so names are assumed to be ASCII,
+ * as all method names are.
+ *
+ * @author sazzad
+ */
+public class MethodDictionary {
+
+    private static final MethodDictionary INSTANCE = new MethodDictionary();
+
+    private static final String METHOD_SQL = "SELECT DISTINCT method FROM analytics_activity_method_map";
+
+    private volatile Snapshot snapshot = new Snapshot(new String[0], new int[16]);
+
+    /**
+     * @return the dictionary shared by the tokenizer, the dispatcher and the
+     * analyzers.
+     */
+    public static MethodDictionary getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Adds every method of analytics_activity_method_map.
+     */
+    public void load(Connection sqlConnection) throws SQLException {
+        try (PreparedStatement statement = sqlConnection.prepareStatement(METHOD_SQL)) {
+            ResultSet rs = statement.executeQuery();
+            while (rs.next()) {
+                String method = rs.getString("method");
+                if (null != method) {
+                    idOf(method);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the id of text[start, end), or -1 if it is not known.
+     */
+    public int find(CharSequence text, int start, int end) {
+        return snapshot.find(text, start, end, hash(text, start, end));
+    }
+
+    public int find(String name) {
+        return find(name, 0, name.length());
+    }
+
+    /**
+     * @return the id of text[start, end), adding it if it is new.
+     */
+    public int idOf(CharSequence text, int start, int end) {
+        int hash = hash(text, start, end);
+        int id = snapshot.find(text, start, end, hash);
+        return id >= 0 ? id : add(text, start, end, hash);
+    }
+
+    public int idOf(String name) {
+        return idOf(name, 0, name.length());
+    }
+
+    public String getName(int id) {
+        return snapshot.names[id];
+    }
+
+    public int size() {
+        return snapshot.names.length;
+    }
+
+    private synchronized int add(CharSequence text, int start, int end, int hash) {
+        Snapshot current = snapshot;
+        int id = current.find(text, start, end, hash);
+        if (id >= 0) {
+            return id;
+        }
+
+        id = current.names.length;
+        String[] names = Arrays.copyOf(current.names, id + 1);
+        names[id] = text.subSequence(start, end).toString();
+
+        int[] slots = current.slots;
+        if ((id + 1) * 2 > slots.length) {
+            slots = new int[slots.length * 2];
+            for (int i = 0; i < id; ++i) {
+                Snapshot.put(slots, names[i].hashCode(), i);
+            }
+        } else {
+            slots = slots.clone();
+        }
+        Snapshot.put(slots, hash, id);
+        snapshot = new Snapshot(names, slots);
+        return id;
+    }
+
+    private static int hash(CharSequence text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; ++i) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        return hash;
+    }
+
+    private static class Snapshot {
+
+        private final String[] names;
+        /**
+         * id + 1 per slot; 0 marks an empty slot.
+         */
+        private final int[] slots;
+
+        Snapshot(String[] names, int[] slots) {
+            this.names = names;
+            this.slots = slots;
+        }
+
+        int find(CharSequence text, int start, int end, int hash) {
+            int mask = slots.length - 1;
+            for (int slot = mix(hash) & mask;; slot = (slot + 1) & mask) {
+                int id = slots[slot] - 1;
+                if (id < 0) {
+                    return -1;
+                }
+                String name = names[id];
+                if (name.hashCode() == hash && equals(name, text, start, end)) {
+                    return id;
+                }
+            }
+        }
+
+        static void put(int[] slots, int hash, int id) {
+            int mask = slots.length - 1;
+            int slot = mix(hash) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+
+        private static int mix(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+
+        private static boolean equals(String name, CharSequence text, int start, int end) {
+            if (name.length() != end - start) {
+                return false;
+            }
+            for (int i = 0; i < name.length(); ++i) {
+                if (name.charAt(i) != text.charAt(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package log.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Online log template miner after Drain (He et al., ICWS 2017).<br>
+ * A message is split on whitespace, tokens with a digit are masked as
+ * {@link #WILDCARD}, and the message walks a fixed depth tree: first by its
+ * token count, then by its first {@link #PREFIX_DEPTH} tokens. The leaf holds
+ * a few templates; the most similar one absorbs the message (positions that
+ * differ become wildcards), or a new template is started.
+ * <br>
+ * Memory is bounded: at most <code>maxTemplates</code> templates are kept,
+ * the least recently used one is evicted first, a node has at most
+ * {@link #MAX_CHILDREN} children, a message is cut to {@link #MAX_TOKENS}
+ * tokens, and each template keeps at most {@link #MAX_SAMPLES} raw messages
+ * of at most {@link #MAX_SAMPLE_LENGTH} chars. An evicted template stays
+ * valid for whoever still holds it; it only stops matching new messages.
+ *
+ * @author sazzad
+ */
+public class TemplateMiner {
+
+    public static final String WILDCARD = "<*>";
+
+    public static final int DEFAULT_MAX_TEMPLATES = 5000;
+
+    static final int PREFIX_DEPTH = 2;
+    static final int MAX_CHILDREN = 100;
+    static final int MAX_TOKENS = 64;
+    static final int MAX_SAMPLES = 3;
+    static final int MAX_SAMPLE_LENGTH = 1000;
+    static final double SIMILARITY = 0.4;
+
+    private final int maxTemplates;
+    private final Map<Integer, Node> roots = new HashMap<>();
+    private final LinkedHashMap<Integer, Template> templates;
+    private final List<String> tokens = new ArrayList<>();
+    private int nextId = 1;
+    private long evictions;
+
+    public TemplateMiner() {
+        this(DEFAULT_MAX_TEMPLATES);
+    }
+
+    public TemplateMiner(int maxTemplates) {
+        if (maxTemplates < 1) {
+            throw new IllegalArgumentException("maxTemplates must be positive: " + maxTemplates);
+        }
+        this.maxTemplates = maxTemplates;
+        this.templates = new LinkedHashMap<Integer, Template>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Template> eldest) {
+                if (size() > TemplateMiner.this.maxTemplates) {
+                    evict(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param message a message without request ids.
+     * @return the template of the message; never null.
+     */
+    public Template match(String message) {
+        return match(message, null);
+    }
+
+    /**
+     * Matches a message saved earlier as a sample of the template with
+     * <code>key</code>, so a template started by it keeps that key.
+     *
+     * @return null if the sample was cut to {@link #MAX_SAMPLE_LENGTH}, as
+     * it does not tokenize like the message it was cut from.
+     */
+    public Template load(String message, int key) {
+        if (null == message || message.length() >= MAX_SAMPLE_LENGTH) {
+            return null;
+        }
+        return match(message, key);
+    }
+
+    /**
+     * Adds a template of another miner by its tokens, as if its messages had
+     * been matched here: it is absorbed by the most similar template, or
+     * kept as a new one with its key and samples.
+     *
+     * @return the template of this miner it went to.
+     */
+    public Template merge(Template other) {
+        Template template = place(Arrays.asList(other.tokens), other.key);
+        for (String sample : other.samples) {
+            template.addSample(sample);
+        }
+        return template;
+    }
+
+    private Template match(String message, Integer key) {
+        tokenize(message);
+        Template template = place(tokens, key);
+        template.addSample(message);
+        return template;
+    }
+
+    /**
+     * Walks the tree with the tokens of a message or template, and adds
+     * them to the most similar template of the leaf or to a new one.
+     */
+    private Template place(List<String> tokens, Integer key) {
+        int length = tokens.size();
+
+        Node root = roots.get(length);
+        if (null == root) {
+            root = new Node(null, null);
+            roots.put(length, root);
+        }
+        Node leaf = root;
+        for (int depth = 0; depth < PREFIX_DEPTH && depth < length; ++depth) {
+            leaf = leaf.child(tokens.get(depth));
+        }
+
+        Template best = null;
+        int bestSame = -1, bestWildcards = -1;
+        for (Template template : leaf.templates) {
+            int same = 0, wildcards = 0;
+            for (int i = 0; i < length; ++i) {
+                String token = template.tokens[i];
+                if (WILDCARD.equals(token)) {
+                    ++wildcards;
+                } else if (token.equals(tokens.get(i))) {
+                    ++same;
+                }
+            }
+            if (same > bestSame || (same == bestSame && wildcards > bestWildcards)) {
+                best = template;
+                bestSame = same;
+                bestWildcards = wildcards;
+            }
+        }
+
+        if (null != best && (length == 0 || (double) bestSame / length >= SIMILARITY)) {
+            best.absorb(tokens);
+            templates.get(best.id);
+        } else {
+            best = new Template(nextId++, tokens.toArray(new String[length]), leaf, key);
+            leaf.templates.add(best);
+            templates.put(best.id, best);
+        }
+        return best;
+    }
+
+    /**
+     * Marks a template as recently used.
+     *
+     * @return false if it has been evicted.
+     */
+    public boolean touch(Template template) {
+        return !template.evicted && null != templates.get(template.id);
+    }
+
+    public int size() {
+        return templates.size();
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    private void tokenize(String message) {
+        tokens.clear();
+        int length = message.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && Character.isWhitespace(message.charAt(i))) {
+                ++i;
+            }
+            if (i >= length) {
+                break;
+            }
+            int start = i;
+            boolean digit = false;
+            while (i < length && !Character.isWhitespace(message.charAt(i))) {
+                char c = message.charAt(i++);
+                digit |= c >= '0' && c <= '9';
+            }
+            if (tokens.size() == MAX_TOKENS - 1) {
+                tokens.add(WILDCARD);
+                break;
+            }
+            tokens.add(digit ? WILDCARD : message.substring(start, i));
+        }
+    }
+
+    private void evict(Template template) {
+        template.evicted = true;
+        ++evictions;
+        Node node = template.leaf;
+        node.templates.remove(template);
+        while (null != node.parent && node.templates.isEmpty() && node.children.isEmpty()) {
+            node.parent.children.remove(node.key);
+            node = node.parent;
+        }
+        if (null == node.parent && node.templates.isEmpty() && node.children.isEmpty()) {
+            roots.remove(template.tokens.length);
+        }
+    }
+
+    private static class Node {
+
+        private final Node parent;
+        private final String key;
+        private final Map<String, Node> children = new HashMap<>();
+        private final List<Template> templates = new ArrayList<>(2);
+
+        Node(Node parent, String key) {
+            this.parent = parent;
+            this.key = key;
+        }
+
+        Node child(String token) {
+            Node child = children.get(token);
+            if (null == child) {
+                if (children.size() >= MAX_CHILDREN) {
+                    token = WILDCARD;
+                    child = children.get(token);
+                }
+                if (null == child) {
+                    child = new Node(this, token);
+                    children.put(token, child);
+                }
+            }
+            return child;
+        }
+    }
+
+    public static class Template {
+
+        private final int id;
+        private final int key;
+        private final String[] tokens;
+        private final Node leaf;
+        private final List<String> samples = new ArrayList<>(MAX_SAMPLES);
+        private String text;
+        private boolean evicted;
+
+        Template(int id, String[] tokens, Node leaf, Integer key) {
+            this.id = id;
+            this.tokens = tokens;
+            this.leaf = leaf;
+            this.key = null != key ? key : getText().hashCode();
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * @return the hash of the first text of the template, or the key it
+         * was loaded with; unlike the text, it does not change as the
+         * template generalizes.
+         */
+        public int getKey() {
+            return key;
+        }
+
+        /**
+         * @return the tokens joined by one space, wildcards as "&lt;*&gt;".
+         */
+        public String getText() {
+            if (null == text) {
+                StringBuilder builder = new StringBuilder();
+                for (String token : tokens) {
+                    if (builder.length() > 0) {
+                        builder.append(' ');
+                    }
+                    builder.append(token);
+                }
+                text = builder.toString();
+            }
+            return text;
+        }
+
+        public List<String> getSamples() {
+            return samples;
+        }
+
+        public boolean isEvicted() {
+            return evicted;
+        }
+
+        private void absorb(List<String> message) {
+            for (int i = 0; i < tokens.length; ++i) {
+                if (!WILDCARD.equals(tokens[i]) && !tokens[i].equals(message.get(i))) {
+                    tokens[i] = WILDCARD;
+                    text = null;
+                }
+            }
+        }
+
+        private void addSample(String message) {
+            if (samples.size() >= MAX_SAMPLES) {
+                return;
+            }
+            if (message.length() > MAX_SAMPLE_LENGTH) {
+                message = message.substring(0, MAX_SAMPLE_LENGTH);
+            }
+            if (!samples.contains(message)) {
+                samples.add(message);
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package log.util;
+
+/**
+ * A {@link DistinctTracker} that starts as a {@link LongHashSet} and moves to
+ * a {@link RoaringLongSet} once the ids turn out to be dense enough for the
+ * bitmap to take less than half the memory.<br>
+ * The check runs each time the size doubles past {@link #FIRST_CHECK}, so it
+ * costs O(1) amortized per add. The move is one way.
+ *
+ * @author sazzad
+ */
+public class AdaptiveLongSet implements DistinctTracker {
+
+    static final int FIRST_CHECK = 4096;
+
+    private DistinctTracker set = new LongHashSet();
+    private boolean bitmap;
+    private int nextCheck = FIRST_CHECK;
+
+    @Override
+    public boolean add(long value) {
+        if (!set.add(value)) {
+            return false;
+        }
+        if (!bitmap && set.size() >= nextCheck) {
+            nextCheck *= 2;
+            if (estimateBitmapBytes() * 2 < set.retainedBytes()) {
+                RoaringLongSet roaring = new RoaringLongSet();
+                for (LongIterator it = set.iterator(); it.hasNext();) {
+                    roaring.add(it.next());
+                }
+                set = roaring;
+                bitmap = true;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean contains(long value) {
+        return set.contains(value);
+    }
+
+    @Override
+    public int size() {
+        return set.size();
+    }
+
+    @Override
+    public void clear() {
+        set.clear();
+    }
+
+    @Override
+    public long retainedBytes() {
+        return 24L + set.retainedBytes();
+    }
+
+    @Override
+    public LongIterator iterator() {
+        return set.iterator();
+    }
+
+    public boolean isBitmap() {
+        return bitmap;
+    }
+
+    /**
+     * @return the bytes a bitmap would take: 2 bytes per value of a sparse
+     * container, 8KB for a dense one, plus the container overhead.
+     */
+    private long estimateBitmapBytes() {
+        LongHashSet highs = new LongHashSet();
+        for (LongIterator it = set.iterator(); it.hasNext();) {
+            highs.add(it.next() >>> 16);
+        }
+        long perContainer = 64L;
+        long sparse = 2L * set.size() + perContainer * highs.size();
+        long dense = (8L * 1024 + perContainer) * highs.size();
+        return Math.min(sparse, dense);
+    }
+}
@@ -0,0 +1,31 @@
+package log.util;
+
+/**
+ * A set of long ids, e.g. the users seen on one day, that can tell how much
+ * heap it holds.
+ *
+ * @author sazzad
+ */
+public interface DistinctTracker {
+
+    /**
+     * @return true if the value was not in the set.
+     */
+    boolean add(long value);
+
+    boolean contains(long value);
+
+    int size();
+
+    void clear();
+
+    /**
+     * @return an estimate of the heap bytes held by the set.
+     */
+    long retainedBytes();
+
+    /**
+     * The set must not change while the iterator is in use.
+     */
+    LongIterator iterator();
+}
@@ -0,0 +1,157 @@
+package log.util;
+
+import java.util.Arrays;
+
+/**
+ * Counts keyed by (dimension id, hour) in an open addressing table of
+ * primitive arrays.<br>
+ * {@link #add(int, long, long)} increments a slot in place, so counting does
+ * not box the hour or the count, and finds its slot with a single probe
+ * sequence. Entries are visited with a slot cursor:
+ * <pre>
+ * for (int slot = counter.first(); slot >= 0; slot = counter.next(slot)) {
+ *     counter.getDimension(slot); counter.getHour(slot); counter.getCount(slot);
+ * }
+ * </pre>
+ *
+ * @author sazzad
+ */
+public class HourCounter {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * dimension + 1 per slot; 0 marks an empty slot.
+     */
+    private int[] dimensions;
+    private long[] hours;
+    private long[] counts;
+    private int mask;
+    private int size;
+
+    public HourCounter() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param dimension a non-negative id, e.g. from a {@link KeyIndex}.
+     */
+    public void add(int dimension, long hour, long delta) {
+        if (dimension < 0) {
+            throw new IllegalArgumentException("dimension: " + dimension);
+        }
+        int slot = find(dimension, hour);
+        if (0 == dimensions[slot]) {
+            dimensions[slot] = dimension + 1;
+            hours[slot] = hour;
+            counts[slot] = delta;
+            if (++size * 2 > dimensions.length) {
+                rehash(dimensions.length * 2);
+            }
+        } else {
+            counts[slot] += delta;
+        }
+    }
+
+    public void increment(int dimension, long hour) {
+        add(dimension, hour, 1L);
+    }
+
+    /**
+     * Adds every count of <code>other</code>, whose dimensions must be the
+     * same ids as the ones of this counter.
+     */
+    public void addAll(HourCounter other) {
+        for (int slot = other.first(); slot >= 0; slot = other.next(slot)) {
+            add(other.getDimension(slot), other.getHour(slot), other.getCount(slot));
+        }
+    }
+
+    public long get(int dimension, long hour) {
+        int slot = find(dimension, hour);
+        return 0 == dimensions[slot] ? 0L : counts[slot];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return 0 == size;
+    }
+
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(dimensions, 0);
+            size = 0;
+        }
+    }
+
+    /**
+     * @return the first used slot, or -1.
+     */
+    public int first() {
+        return next(-1);
+    }
+
+    /**
+     * @return the used slot after <code>slot</code>, or -1.
+     */
+    public int next(int slot) {
+        for (int i = slot + 1; i < dimensions.length; ++i) {
+            if (0 != dimensions[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int getDimension(int slot) {
+        return dimensions[slot] - 1;
+    }
+
+    public long getHour(int slot) {
+        return hours[slot];
+    }
+
+    public long getCount(int slot) {
+        return counts[slot];
+    }
+
+    private int find(int dimension, long hour) {
+        int stored = dimension + 1;
+        int slot = hash(dimension, hour) & mask;
+        while (0 != dimensions[slot] && (dimensions[slot] != stored || hours[slot] != hour)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(int dimension, long hour) {
+        long h = (hour * 0x9E3779B97F4A7C15L) ^ (dimension * 0xC2B2AE3D27D4EB4FL);
+        h ^= h >>> 32;
+        return (int) (h ^ (h >>> 16));
+    }
+
+    private void allocate(int capacity) {
+        dimensions = new int[capacity];
+        hours = new long[capacity];
+        counts = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldDimensions = dimensions;
+        long[] oldHours = hours;
+        long[] oldCounts = counts;
+        allocate(capacity);
+        for (int i = 0; i < oldDimensions.length; ++i) {
+            if (0 != oldDimensions[i]) {
+                int slot = find(oldDimensions[i] - 1, oldHours[i]);
+                dimensions[slot] = oldDimensions[i];
+                hours[slot] = oldHours[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package log.util;
+
+import java.util.Arrays;
+
+/**
+ * HyperLogLog distinct count sketch (Flajolet et al., 2007) over long ids.
+ * <br>
+ * With the default precision of 14 bits the sketch has 16384 one byte
+ * registers and a standard error of about 0.8%. Sketches of the same
+ * precision merge by taking the register maximum, so an hourly sketch can
+ * be folded into the daily one, sketches of different files into one
+ * another, and daily sketches into a weekly or monthly count.
+ * {@link #toBytes()} is the precision byte followed by the registers.
+ *
+ * @author sazzad
+ */
+public class HyperLogLog {
+
+    public static final int DEFAULT_PRECISION = 14;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 18) {
+            throw new IllegalArgumentException("precision must be within [4, 18]: " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    public static HyperLogLog fromBytes(byte[] bytes) {
+        HyperLogLog sketch = new HyperLogLog(bytes[0]);
+        if (bytes.length != sketch.registers.length + 1) {
+            throw new IllegalArgumentException("Sketch of precision " + bytes[0] + " can not have " + bytes.length + " bytes.");
+        }
+        System.arraycopy(bytes, 1, sketch.registers, 0, sketch.registers.length);
+        return sketch;
+    }
+
+    public byte[] toBytes() {
+        byte[] bytes = new byte[registers.length + 1];
+        bytes[0] = (byte) precision;
+        System.arraycopy(registers, 0, bytes, 1, registers.length);
+        return bytes;
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public void add(long value) {
+        long hash = mix(value);
+        int index = (int) (hash >>> (64 - precision));
+        long rest = hash << precision;
+        int rank = rest == 0L ? 64 - precision + 1 : Long.numberOfLeadingZeros(rest) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Can not merge precision " + other.precision + " into " + precision + ".");
+        }
+        for (int i = 0; i < registers.length; ++i) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    public long cardinality() {
+        int m = registers.length;
+        double sum = 0.0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (0 == register) {
+                ++zeros;
+            }
+        }
+        // the raw estimate is still a few percent high around 2.5m, so
+        // linear counting is kept up to 3m, where the two errors cross
+        if (zeros > 0) {
+            double linear = m * Math.log((double) m / zeros);
+            if (linear <= 3 * m) {
+                return Math.round(linear);
+            }
+        }
+        return Math.round(alpha(m) * m * m / sum);
+    }
+
+    public boolean isEmpty() {
+        for (byte register : registers) {
+            if (0 != register) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(registers, (byte) 0);
+    }
+
+    private static double alpha(int m) {
+        switch (m) {
+        case 16:
+            return 0.673;
+        case 32:
+            return 0.697;
+        case 64:
+            return 0.709;
+        default:
+            return 0.7213 / (1.0 + 1.079 / m);
+        }
+    }
+
+    /**
+     * MurmurHash3 64 bit finalizer; spreads sequential ids over all bits.
+     */
+    private static long mix(long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,53 @@
+package log.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns dense int ids to keys, in order of first use, so they can be
+ * counted in a {@link HourCounter}.
+ *
+ * @author sazzad
+ * @param <K> the key type
+ */
+public class KeyIndex<K> {
+
+    private final Map<K, Integer> ids = new HashMap<>();
+    private final List<K> keys = new ArrayList<>();
+
+    /**
+     * @return the id of the key, assigning the next one if it is new.
+     */
+    public int idOf(K key) {
+        Integer id = ids.get(key);
+        if (null == id) {
+            id = keys.size();
+            keys.add(key);
+            ids.put(key, id);
+        }
+        return id;
+    }
+
+    /**
+     * @return the id of the key, or -1.
+     */
+    public int find(K key) {
+        Integer id = ids.get(key);
+        return null == id ? -1 : id;
+    }
+
+    public K get(int id) {
+        return keys.get(id);
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    public void clear() {
+        ids.clear();
+        keys.clear();
+    }
+}
@@ -0,0 +1,144 @@
+package log.util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * An open addressing set of longs with linear probing.<br>
+ * Values sit in one long[] kept at most 3/4 full, about 11 to 21 bytes per
+ * value against 50+ for a HashSet&lt;Long&gt;. Slot value 0 marks an empty
+ * slot; 0 itself is tracked with a flag.
+ *
+ * @author sazzad
+ */
+public class LongHashSet implements DistinctTracker {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] values;
+    private int mask;
+    private int size;
+    private boolean hasZero;
+
+    public LongHashSet() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public LongHashSet(int expectedSize) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity * 3 / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    @Override
+    public boolean add(long value) {
+        if (0L == value) {
+            if (hasZero) {
+                return false;
+            }
+            hasZero = true;
+            ++size;
+            return true;
+        }
+        int slot = find(value);
+        if (values[slot] == value) {
+            return false;
+        }
+        values[slot] = value;
+        if (++size * 4 > values.length * 3) {
+            rehash(values.length * 2);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean contains(long value) {
+        if (0L == value) {
+            return hasZero;
+        }
+        return values[find(value)] == value;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(values, 0L);
+            size = 0;
+            hasZero = false;
+        }
+    }
+
+    @Override
+    public long retainedBytes() {
+        return 32L + 16L + 8L * values.length;
+    }
+
+    @Override
+    public LongIterator iterator() {
+        return new LongIterator() {
+            private int slot = hasZero ? -1 : advance(0);
+
+            @Override
+            public boolean hasNext() {
+                return slot < values.length;
+            }
+
+            @Override
+            public long next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (slot < 0) {
+                    slot = advance(0);
+                    return 0L;
+                }
+                long value = values[slot];
+                slot = advance(slot + 1);
+                return value;
+            }
+
+            private int advance(int from) {
+                int i = from;
+                while (i < values.length && 0L == values[i]) {
+                    ++i;
+                }
+                return i;
+            }
+        };
+    }
+
+    private int find(long value) {
+        int slot = mix(value) & mask;
+        while (values[slot] != 0L && values[slot] != value) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int mix(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void allocate(int capacity) {
+        values = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    private void rehash(int capacity) {
+        long[] old = values;
+        allocate(capacity);
+        for (long value : old) {
+            if (0L != value) {
+                values[find(value)] = value;
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package log.util;
+
+/**
+ * An iterator over primitive longs.
+ *
+ * @author sazzad
+ */
+public interface LongIterator {
+
+    boolean hasNext();
+
+    long next();
+}
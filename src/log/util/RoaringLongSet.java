@@ -0,0 +1,242 @@
+package log.util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A compressed bitmap set of longs in the style of Roaring bitmaps (Chambi
+ * et al., 2016).<br>
+ * A value is split into its high 48 bits, which select a container, and its
+ * low 16 bits, which are kept in it. A container is a sorted char[] while it
+ * holds up to {@link #ARRAY_LIMIT} values (2 bytes per value) and a 8KB
+ * bitmap beyond that, so dense ids cost as little as 1 bit each.
+ *
+ * @author sazzad
+ */
+public class RoaringLongSet implements DistinctTracker {
+
+    static final int ARRAY_LIMIT = 4096;
+    private static final int BITMAP_WORDS = 1 << 10;
+
+    private long[] keys = new long[4];
+    private Container[] containers = new Container[4];
+    private int containerCount;
+    private int size;
+
+    @Override
+    public boolean add(long value) {
+        long key = value >>> 16;
+        char low = (char) value;
+        int index = indexOf(key);
+        if (index < 0) {
+            index = -index - 1;
+            insertContainer(index, key);
+        }
+        if (containers[index].add(low)) {
+            if (containers[index] instanceof ArrayContainer
+                    && containers[index].cardinality > ARRAY_LIMIT) {
+                containers[index] = ((ArrayContainer) containers[index]).toBitmap();
+            }
+            ++size;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean contains(long value) {
+        int index = indexOf(value >>> 16);
+        return index >= 0 && containers[index].contains((char) value);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(containers, 0, containerCount, null);
+        containerCount = 0;
+        size = 0;
+    }
+
+    @Override
+    public long retainedBytes() {
+        long bytes = 32L + 16L + 8L * keys.length + 16L + 4L * containers.length;
+        for (int i = 0; i < containerCount; ++i) {
+            bytes += containers[i].retainedBytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    public LongIterator iterator() {
+        return new LongIterator() {
+            private int index;
+            private int position = -1;
+
+            {
+                advance();
+            }
+
+            @Override
+            public boolean hasNext() {
+                return index < containerCount;
+            }
+
+            @Override
+            public long next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                long value = (keys[index] << 16) | containers[index].valueAt(position);
+                advance();
+                return value;
+            }
+
+            private void advance() {
+                while (index < containerCount) {
+                    position = containers[index].nextPosition(position);
+                    if (position >= 0) {
+                        return;
+                    }
+                    ++index;
+                    position = -1;
+                }
+            }
+        };
+    }
+
+    private int indexOf(long key) {
+        return Arrays.binarySearch(keys, 0, containerCount, key);
+    }
+
+    private void insertContainer(int index, long key) {
+        if (containerCount == keys.length) {
+            keys = Arrays.copyOf(keys, containerCount * 2);
+            containers = Arrays.copyOf(containers, containerCount * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, containerCount - index);
+        System.arraycopy(containers, index, containers, index + 1, containerCount - index);
+        keys[index] = key;
+        containers[index] = new ArrayContainer();
+        ++containerCount;
+    }
+
+    private abstract static class Container {
+
+        int cardinality;
+
+        abstract boolean add(char low);
+
+        abstract boolean contains(char low);
+
+        abstract long retainedBytes();
+
+        /**
+         * @return the position after <code>position</code>, or -1.
+         */
+        abstract int nextPosition(int position);
+
+        abstract long valueAt(int position);
+    }
+
+    private static class ArrayContainer extends Container {
+
+        private char[] values = new char[4];
+
+        @Override
+        boolean add(char low) {
+            int index = Arrays.binarySearch(values, 0, cardinality, low);
+            if (index >= 0) {
+                return false;
+            }
+            index = -index - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(cardinality * 2, ARRAY_LIMIT + 1));
+            }
+            System.arraycopy(values, index, values, index + 1, cardinality - index);
+            values[index] = low;
+            ++cardinality;
+            return true;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return Arrays.binarySearch(values, 0, cardinality, low) >= 0;
+        }
+
+        @Override
+        long retainedBytes() {
+            return 24L + 16L + 2L * values.length;
+        }
+
+        @Override
+        int nextPosition(int position) {
+            return position + 1 < cardinality ? position + 1 : -1;
+        }
+
+        @Override
+        long valueAt(int position) {
+            return values[position];
+        }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < cardinality; ++i) {
+                bitmap.add(values[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    private static class BitmapContainer extends Container {
+
+        private final long[] words = new long[BITMAP_WORDS];
+
+        @Override
+        boolean add(char low) {
+            long bit = 1L << low;
+            int word = low >>> 6;
+            if ((words[word] & bit) != 0L) {
+                return false;
+            }
+            words[word] |= bit;
+            ++cardinality;
+            return true;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return (words[low >>> 6] & (1L << low)) != 0L;
+        }
+
+        @Override
+        long retainedBytes() {
+            return 24L + 16L + 8L * BITMAP_WORDS;
+        }
+
+        @Override
+        int nextPosition(int position) {
+            int from = position + 1;
+            int word = from >>> 6;
+            if (word >= BITMAP_WORDS) {
+                return -1;
+            }
+            long bits = words[word] & (-1L << from);
+            while (bits == 0L) {
+                if (++word >= BITMAP_WORDS) {
+                    return -1;
+                }
+                bits = words[word];
+            }
+            return (word << 6) + Long.numberOfTrailingZeros(bits);
+        }
+
+        @Override
+        long valueAt(int position) {
+            return position;
+        }
+    }
+}
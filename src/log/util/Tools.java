@@ -23,6 +23,89 @@ public class Tools {
     public static final String MYSQL_USER_KEY = "mysql.user";
     public static final String MYSQL_PASSWD_KEY = "mysql.passwd";
 
+    /**
+     * Comma separated stream ids whose every LiveStreamHistory line is kept
+     * as its own row, or <code>*</code> for all streams. Other streams are
+     * coalesced to one row per file.
+     */
+    public static final String LIVE_STREAM_HISTORY_KEY = "livestream.history";
+    public static final String ALL_STREAMS = "*";
+
+    /**
+     * Most error message templates ErrorMessageCount keeps in memory, e.g.
+     * 5000; 0 (default) turns template mining off and counts every distinct
+     * message.
+     */
+    public static final String ERROR_TEMPLATES_MAX_KEY = "error.templates.max";
+
+    /**
+     * How unique users and live viewers are counted: "exact" (default),
+     * "approximate" with HyperLogLog sketches, or "insert_ignore", which
+     * counts the ids INSERT IGNORE really inserted instead of reading the
+     * day's ids back.
+     */
+    public static final String UNIQUE_MODE_KEY = "unique.mode";
+
+    /**
+     * Threads parsing files of the current folder concurrently, 1 by default.
+     * Saves and commits still run one file at a time in file order.
+     */
+    public static final String WORKERS_KEY = "workers";
+
+    /**
+     * Files queued between the reader, parser and writer threads of the
+     * current folder pipeline; 0 (default) processes files one at a time.
+     * Ignored when more than one worker is configured.
+     */
+    public static final String PIPELINE_DEPTH_KEY = "pipeline.depth";
+
+    /**
+     * Connections the analyzers of the current folder are saved over in
+     * parallel, with analytics_file_ledger making the file atomic; 1 (default)
+     * saves everything in one transaction of the main connection.
+     */
+    public static final String FLUSH_CONNECTIONS_KEY = "flush.connections";
+
+    /**
+     * Size in KB of the blocks archived files are compressed in, e.g. 4096;
+     * 0 (default) archives files as they are.
+     */
+    public static final String ARCHIVE_BLOCK_SIZE_KB_KEY = "archive.block.size.kb";
+
+    /**
+     * "true" merges the archived files of each finished hour into one file,
+     * <code>hour-yyyyMMddHH</code>, after the current folder is processed;
+     * "false" by default.
+     */
+    public static final String ARCHIVE_CONSOLIDATE_KEY = "archive.consolidate";
+
+    /**
+     * "true" also reads the complete lines of the newest current file, which
+     * Flume is still writing, keeping the offset read up to in
+     * analytics_tail_checkpoint; "false" by default. Saves on the main
+     * connection only.
+     */
+    public static final String TAIL_KEY = "tail";
+
+    /**
+     * Threads of the background revisit of archived files, 2 by default.
+     */
+    public static final String REVISIT_WORKERS_KEY = "revisit.workers";
+
+    /**
+     * MB per second the revisit reads at most, so the hourly run keeps its
+     * share of the disk; 0 (default) does not limit it.
+     */
+    public static final String REVISIT_TARGET_MBPS_KEY = "revisit.target.mbps";
+
+    /**
+     * Size in MB of the chunks a large current file is split into and parsed
+     * in parallel; files up to two chunks are read on one thread, 0 turns
+     * chunking off.
+     */
+    public static final String CHUNK_SIZE_MB_KEY = "chunk.size.mb";
+    public static final int DEFAULT_CHUNK_SIZE_MB = 256;
+
     public static final String CURRENT_NAME = "current";
     public static final String ARCHIVE_NAME = "archive";
 
@@ -0,0 +1,291 @@
+package log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import log.analyzers.ActivityCount;
+import log.analyzers.Analyzer;
+import log.analyzers.ErrorMessageCount;
+import log.analyzers.LiveStreamHistory;
+import log.analyzers.LiveViewerCount;
+import log.analyzers.MediaCount;
+import log.analyzers.MethodCount;
+import log.analyzers.OnlineUserStatus;
+import log.analyzers.UniqueMode;
+import log.analyzers.UserCount;
+import log.io.MappedLineReader;
+import log.parser.LogRecord;
+import log.parser.LogTokenizer;
+import log.parser.TemplateMiner;
+
+/**
+ * Parses a sample log file once line by line and once in small chunks with
+ * {@link ChunkedFileParser}, and compares the line totals and the rows every
+ * analyzer writes on saveToDB. The rows are recorded by a fake connection,
+ * which finds nothing stored yet.
+ *
+ * @author sazzad
+ */
+public class ChunkedFileParserTest {
+
+    public static void main(String[] args) throws IOException, SQLException {
+        String filename = args.length > 0 ? args[0] : "/home/sazzad/Temp/sample/1478508482007-2392";
+        File file = new File(filename);
+        long chunkSize = Math.max(1L, file.length() / 7);
+        long mismatch = 0L;
+
+        long[] boundaries = MappedLineReader.splitAtLines(file, chunkSize);
+        if (!checkBoundaries(file, boundaries)) {
+            ++mismatch;
+            System.out.println("MISMATCH: chunk boundaries " + Arrays.toString(boundaries));
+        }
+
+        RecordingConnection sequentialDb = new RecordingConnection();
+        List<Analyzer> sequential = createAnalyzers(sequentialDb.proxy());
+        AnalyzerDispatcher sequentialDispatcher = new AnalyzerDispatcher(sequential);
+        long[] sequentialTotals = parseSequential(sequentialDispatcher, file);
+
+        RecordingConnection chunkedDb = new RecordingConnection();
+        List<Analyzer> chunked = createAnalyzers(chunkedDb.proxy());
+        AnalyzerDispatcher chunkedDispatcher = new AnalyzerDispatcher(chunked);
+        ChunkedFileParser parser = new ChunkedFileParser(new ForkJoinPool(4), chunkSize);
+        long[] chunkedTotals;
+        try {
+            chunkedTotals = parser.parse(chunkedDispatcher, file);
+        } finally {
+            parser.shutdown();
+        }
+
+        if (!Arrays.equals(sequentialTotals, chunkedTotals)) {
+            ++mismatch;
+            System.out.println("MISMATCH: totals " + Arrays.toString(sequentialTotals)
+                    + " != " + Arrays.toString(chunkedTotals));
+        }
+        if (!sequentialDispatcher.getReport().equals(chunkedDispatcher.getReport())) {
+            ++mismatch;
+            System.out.println("MISMATCH: " + sequentialDispatcher.getReport()
+                    + " != " + chunkedDispatcher.getReport());
+        }
+
+        for (int i = 0; i < sequential.size(); ++i) {
+            String name = sequential.get(i).getClass().getSimpleName();
+            List<String> expected = save(sequentialDb, sequential.get(i));
+            List<String> actual = save(chunkedDb, chunked.get(i));
+            if (!expected.equals(actual)) {
+                ++mismatch;
+                System.out.println("MISMATCH: " + name + " rows=" + expected.size() + " chunked_rows=" + actual.size());
+            }
+            System.out.println(name + " rows=" + expected.size());
+        }
+
+        System.out.println("chunks=" + (boundaries.length - 1) + " lines=" + sequentialTotals[1]
+                + " matched=" + sequentialTotals[0] + " mismatches=" + mismatch);
+    }
+
+    private static List<Analyzer> createAnalyzers(Connection connection) throws SQLException {
+        List<Analyzer> analyzers = new ArrayList<>();
+        analyzers.add(new MethodCount(connection));
+        analyzers.add(new ActivityCount(connection));
+        analyzers.add(new MediaCount(connection));
+        analyzers.add(new ErrorMessageCount(connection));
+        analyzers.add(new ErrorMessageCount(connection, TemplateMiner.DEFAULT_MAX_TEMPLATES));
+        analyzers.add(new LiveStreamHistory(connection));
+        analyzers.add(new OnlineUserStatus(connection));
+        for (UniqueMode mode : UniqueMode.values()) {
+            analyzers.add(new UserCount(connection, mode));
+            analyzers.add(new LiveViewerCount(connection, mode));
+        }
+        return analyzers;
+    }
+
+    private static long[] parseSequential(AnalyzerDispatcher dispatcher, File file) throws IOException {
+        LogTokenizer tokenizer = new LogTokenizer();
+        LogRecord record = new LogRecord();
+        long match = 0L, all = 0L;
+        try (MappedLineReader reader = new MappedLineReader(file)) {
+            CharSequence line;
+            while ((line = reader.readLine()) != null) {
+                if (tokenizer.tokenize(line, record) && dispatcher.dispatch(record)) {
+                    ++match;
+                }
+                ++all;
+            }
+        }
+        return new long[]{match, all};
+    }
+
+    /**
+     * Every range must start right after a '\n' and the ranges must cover
+     * the file.
+     */
+    private static boolean checkBoundaries(File file, long[] boundaries) throws IOException {
+        if (boundaries[0] != 0L || boundaries[boundaries.length - 1] != file.length()) {
+            return false;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            for (int i = 1; i < boundaries.length - 1; ++i) {
+                if (boundaries[i] <= boundaries[i - 1]) {
+                    return false;
+                }
+                raf.seek(boundaries[i] - 1);
+                if (raf.read() != '\n') {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static List<String> save(RecordingConnection db, Analyzer analyzer) throws SQLException {
+        db.rows.clear();
+        analyzer.saveToDB();
+        List<String> rows = new ArrayList<>(db.rows);
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /**
+     * A connection that records every statement executed or batched, with
+     * its parameters, and returns empty results except for the activity
+     * map.
+     */
+    private static class RecordingConnection implements InvocationHandler {
+
+        private static final String[][] ACTIVITY_METHODS = {
+            {"media", "addStatus"},
+            {"media", "addProfileOrCoverImage"},
+            {"presence", "userOnlineStatus"}
+        };
+
+        private final List<String> rows = new ArrayList<>();
+
+        Connection proxy() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.startsWith("prepare")) {
+                return Proxy.newProxyInstance(CallableStatement.class.getClassLoader(),
+                        new Class<?>[]{CallableStatement.class}, new RecordingStatement((String) args[0]));
+            }
+            if ("getAutoCommit".equals(name)) {
+                return true;
+            }
+            return defaultValue(method.getReturnType());
+        }
+
+        private class RecordingStatement implements InvocationHandler {
+
+            private final String sql;
+            private final Map<Integer, String> params = new TreeMap<>();
+            private int batchSize;
+
+            RecordingStatement(String sql) {
+                this.sql = sql;
+            }
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.startsWith("set") && null != args && args.length == 2 && args[0] instanceof Integer) {
+                    Object value = args[1];
+                    params.put((Integer) args[0], value instanceof byte[]
+                            ? Arrays.toString((byte[]) value) : String.valueOf(value));
+                    return null;
+                }
+                switch (name) {
+                    case "clearParameters":
+                        params.clear();
+                        return null;
+                    case "addBatch":
+                        rows.add(sql + " | " + params.values());
+                        ++batchSize;
+                        return null;
+                    case "executeBatch":
+                        int[] counts = new int[batchSize];
+                        Arrays.fill(counts, 1);
+                        batchSize = 0;
+                        return counts;
+                    case "execute":
+                    case "executeUpdate":
+                        rows.add(sql + " | " + params.values());
+                        return "execute".equals(name) ? (Object) false : (Object) 1;
+                    case "executeQuery":
+                        String[][] result = sql.contains("analytics_activity_method_map")
+                                ? ACTIVITY_METHODS : new String[0][];
+                        return Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                                new Class<?>[]{ResultSet.class}, new ActivityResult(result));
+                    default:
+                        return defaultValue(method.getReturnType());
+                }
+            }
+        }
+    }
+
+    /**
+     * Rows of (activity, method).
+     */
+    private static class ActivityResult implements InvocationHandler {
+
+        private final String[][] rows;
+        private int row = -1;
+
+        ActivityResult(String[][] rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "next":
+                    return ++row < rows.length;
+                case "getString":
+                    return "activity".equals(args[0]) ? rows[row][0] : rows[row][1];
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        }
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == double.class) {
+            return 0.0;
+        }
+        if (type == float.class) {
+            return 0.0f;
+        }
+        if (type == short.class) {
+            return (short) 0;
+        }
+        if (type == byte.class) {
+            return (byte) 0;
+        }
+        return null;
+    }
+}
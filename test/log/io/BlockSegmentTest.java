@@ -0,0 +1,142 @@
+package log.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes a segment from a log file, opens it again and compares every line
+ * read back with the original, byte for byte after dropping the '\r' of a
+ * CRLF. The file is a generated one with CRLF lines, empty lines, lines
+ * without a timestamp and lines longer than a block, or the one given.
+ *
+ * @author sazzad
+ */
+public class BlockSegmentTest {
+
+    private static final int BLOCK_SIZE = 4 * 1024;
+
+    public static void main(String[] args) throws IOException {
+        File dir = Files.createTempDirectory("segment").toFile();
+        File source = args.length > 0 ? new File(args[0]) : generate(new File(dir, "1478508482007-2392"));
+        File target = new File(dir, source.getName() + BlockSegment.SUFFIX);
+        long mismatch = 0L;
+
+        List<byte[]> expected = splitLines(Files.readAllBytes(source.toPath()));
+        long rawSize = 0L;
+        for (byte[] line : expected) {
+            rawSize += line.length + 1;
+        }
+
+        BlockSegment written = BlockSegment.write(source, target, BLOCK_SIZE);
+        BlockSegment segment = BlockSegment.open(target);
+        if (written.getBlocks().size() != segment.getBlocks().size()) {
+            ++mismatch;
+            System.out.println("MISMATCH: blocks written=" + written.getBlocks().size()
+                    + " read=" + segment.getBlocks().size());
+        }
+        if (segment.getRawSize() != rawSize) {
+            ++mismatch;
+            System.out.println("MISMATCH: raw size " + segment.getRawSize() + " != " + rawSize);
+        }
+
+        int next = 0;
+        long oversized = 0L;
+        for (BlockSegment.Block block : segment.getBlocks()) {
+            if (block.getRawLength() > BLOCK_SIZE) {
+                ++oversized;
+                if (block.getLines() != 1L) {
+                    ++mismatch;
+                    System.out.println("MISMATCH: block of " + block.getRawLength()
+                            + " bytes holds " + block.getLines() + " lines");
+                }
+            }
+            long lines = 0L;
+            BlockSegment.LineReader reader = segment.read(block);
+            ByteLine line;
+            while ((line = reader.readLine()) != null) {
+                ++lines;
+                byte[] bytes = line.toBytes();
+                if (next >= expected.size() || !Arrays.equals(expected.get(next), bytes)) {
+                    ++mismatch;
+                    System.out.println("MISMATCH: line " + next + ": " + line);
+                }
+                ++next;
+            }
+            if (lines != block.getLines()) {
+                ++mismatch;
+                System.out.println("MISMATCH: block lines " + block.getLines() + " != " + lines);
+            }
+        }
+        if (next != expected.size()) {
+            ++mismatch;
+            System.out.println("MISMATCH: lines read " + next + " != " + expected.size());
+        }
+
+        System.out.println("lines=" + expected.size() + " blocks=" + segment.getBlocks().size()
+                + " oversized_blocks=" + oversized + " raw=" + segment.getRawSize()
+                + " compressed=" + segment.getCompressedSize() + " mismatches=" + mismatch);
+
+        target.delete();
+        if (args.length == 0) {
+            source.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * Splits at '\n' and drops a '\r' before it; a last line without '\n'
+     * is a line too.
+     */
+    private static List<byte[]> splitLines(byte[] bytes) {
+        List<byte[]> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= bytes.length; ++i) {
+            if (i == bytes.length && start == i) {
+                break;
+            }
+            if (i == bytes.length || bytes[i] == '\n') {
+                int end = i > start && bytes[i - 1] == '\r' ? i - 1 : i;
+                lines.add(Arrays.copyOfRange(bytes, start, end));
+                start = i + 1;
+            }
+        }
+        return lines;
+    }
+
+    private static File generate(File file) throws IOException {
+        Random random = new Random(7);
+        try (OutputStream out = new FileOutputStream(file)) {
+            for (int i = 0; i < 20000; ++i) {
+                String timestamp = String.format("201611071%d%02d%02d%03d", i / 4000, i / 400 % 10,
+                        i % 60, random.nextInt(1000));
+                StringBuilder line = new StringBuilder(timestamp)
+                        .append(" INFO - R r").append(i).append(" userOnlineStatus - {\"userId\":")
+                        .append(random.nextInt(5000)).append(",\"name\":\"\u09B0\u09BF\u0982\"}");
+                int kind = random.nextInt(100);
+                if (kind < 2) {
+                    // longer than a block
+                    for (int n = BLOCK_SIZE + random.nextInt(3 * BLOCK_SIZE); n > 0; --n) {
+                        line.append((char) ('a' + n % 26));
+                    }
+                } else if (kind < 5) {
+                    line.append("\n\tat some.Class.method(Class.java:").append(i).append(')');
+                } else if (kind < 7) {
+                    line.append('\n');
+                }
+                out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+                out.write(kind % 3 == 0 ? "\r\n".getBytes(StandardCharsets.US_ASCII) : new byte[]{'\n'});
+            }
+            // a last line without '\n'
+            out.write("20161107100000000 WARN  - last line".getBytes(StandardCharsets.US_ASCII));
+        }
+        return file;
+    }
+}
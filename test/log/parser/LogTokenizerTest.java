@@ -0,0 +1,62 @@
+package log.parser;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the tokenizer with the regular expressions it replaced, line by
+ * line, over a sample log file.
+ *
+ * @author sazzad
+ */
+public class LogTokenizerTest {
+
+    private static final Pattern logPattern = Pattern.compile("^(\\d{17})\\s+([A-Z]{4,5})\\s+");
+    private static final Pattern methodPattern = Pattern.compile("^(\\d{17})\\s+INFO - R \\S+ (\\w+) .*$");
+    private static final Pattern paramPattern = Pattern.compile("^(\\d{17})\\s+INFO - R \\S+ (\\w+) - (.*)$");
+
+    public static void main(String[] args) throws IOException {
+        String filename = "/home/sazzad/Temp/sample/1478508482007-2392";
+
+        LogTokenizer tokenizer = new LogTokenizer();
+        LogRecord record = new LogRecord();
+        long all = 0L, mismatch = 0L;
+
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(
+                new FileInputStream(filename), StandardCharsets.UTF_8))) {
+            String line;
+
+            while ((line = br.readLine()) != null) {
+                boolean parsed = tokenizer.tokenize(line, record);
+                Matcher lm = logPattern.matcher(line);
+                Matcher mm = methodPattern.matcher(line);
+                Matcher pm = paramPattern.matcher(line);
+
+                boolean same = parsed == lm.find();
+                if (same && parsed) {
+                    same = lm.group(2).equals(record.getLevel())
+                            && Long.parseLong(lm.group(1)) == record.getTimestamp()
+                            && mm.matches() == record.isRequest()
+                            && pm.matches() == record.hasParams();
+                }
+                if (same && record.hasParams()) {
+                    same = pm.group(2).equals(record.getMethod())
+                            && pm.group(3).equals(record.getParams().toString());
+                }
+
+                if (!same) {
+                    ++mismatch;
+                    System.out.println("MISMATCH: " + line);
+                }
+                ++all;
+            }
+        }
+
+        System.out.println("lines=" + all + " mismatches=" + mismatch);
+    }
+}
@@ -0,0 +1,69 @@
+package log.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that two sketches over overlapping halves of a set of ids merge
+ * into the same registers as one sketch over all of them, that
+ * {@link HyperLogLog#toBytes()} round trips, and that the estimate is
+ * within three standard errors (1.04 / sqrt(m)) of the true count, for
+ * sequential ids like user ids and for random ones.
+ *
+ * @author sazzad
+ */
+public class HyperLogLogTest {
+
+    private static final int[] COUNTS = {0, 1, 10, 100, 1000, 2600, 10000, 40000, 100000, 1000000, 5000000};
+
+    public static void main(String[] args) {
+        long mismatch = 0L;
+        for (int precision : new int[]{10, HyperLogLog.DEFAULT_PRECISION}) {
+            for (boolean sequential : new boolean[]{true, false}) {
+                for (int count : COUNTS) {
+                    if (!check(precision, sequential, count)) {
+                        ++mismatch;
+                    }
+                }
+            }
+        }
+        System.out.println("cases=" + 2 * 2 * COUNTS.length + " mismatches=" + mismatch);
+    }
+
+    private static boolean check(int precision, boolean sequential, int count) {
+        HyperLogLog all = new HyperLogLog(precision);
+        HyperLogLog first = new HyperLogLog(precision);
+        HyperLogLog second = new HyperLogLog(precision);
+        Random random = new Random(count);
+        long base = 1000000000L + random.nextInt(1000000);
+        for (int i = 0; i < count; ++i) {
+            long id = sequential ? base + i : random.nextLong();
+            all.add(id);
+            // the halves overlap by a tenth of the ids
+            if (i < count * 11 / 20) {
+                first.add(id);
+            }
+            if (i >= count * 9 / 20) {
+                second.add(id);
+            }
+        }
+
+        HyperLogLog merged = HyperLogLog.fromBytes(first.toBytes());
+        merged.merge(second);
+        HyperLogLog reversed = HyperLogLog.fromBytes(second.toBytes());
+        reversed.merge(first);
+
+        long estimate = merged.cardinality();
+        double error = 0 == count ? estimate : Math.abs(estimate - count) / (double) count;
+        double bound = 3 * 1.04 / Math.sqrt(1 << precision);
+        boolean same = Arrays.equals(all.toBytes(), merged.toBytes())
+                && Arrays.equals(all.toBytes(), reversed.toBytes())
+                && (0 == count) == merged.isEmpty()
+                && error <= bound;
+
+        System.out.println((same ? "" : "MISMATCH: ") + "precision=" + precision
+                + " ids=" + (sequential ? "sequential" : "random") + " count=" + count
+                + " estimate=" + estimate + String.format(" error=%.4f bound=%.4f", error, bound));
+        return same;
+    }
+}